@@ -0,0 +1,65 @@
+package com.github.inbalboa.calcdialog;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks for {@link CalcBatchEvaluator}, in parallel and on the calling thread.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BatchBenchmark {
+
+    @Param({"20", "200"})
+    public int terms;
+
+    private final List<CalcBatchEvaluator.Item> items = new ArrayList<>();
+
+    @Setup
+    public void setup() {
+        Random random = new Random(0);
+        for (int i = 0; i < 10_000; i++) {
+            CalcBatchEvaluator.Item item = new CalcBatchEvaluator.Item(BigDecimal.ONE);
+            for (int j = 1; j < terms; j++) {
+                BigDecimal number = BigDecimal.valueOf(1 + random.nextInt(99_999), 2);
+                switch (random.nextInt(4)) {
+                    case 0 -> item.add(number);
+                    case 1 -> item.subtract(number);
+                    case 2 -> item.multiply(number);
+                    default -> item.divide(number);
+                }
+            }
+            items.add(item);
+        }
+    }
+
+    @Benchmark
+    public List<CalcBatchEvaluator.Result> parallel() {
+        return CalcBatchEvaluator.evaluate(items);
+    }
+
+    @Benchmark
+    public List<CalcBatchEvaluator.Result> sequential() {
+        return CalcBatchEvaluator.evaluate(items, Runnable::run);
+    }
+
+}
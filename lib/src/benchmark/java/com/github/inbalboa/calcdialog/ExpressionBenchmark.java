@@ -0,0 +1,96 @@
+package com.github.inbalboa.calcdialog;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks for {@link Expression} evaluation.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ExpressionBenchmark {
+
+    @Param({"2", "10", "100", "1000", "10000"})
+    public int terms;
+
+    @Param({"true", "false"})
+    public boolean priority;
+
+    @Param({"integer", "fractional"})
+    public String operands;
+
+    private Expression expression;
+    private BigDecimal lastNumber;
+    private Expression.Operator lastOperator;
+    private int scale;
+
+    @Setup
+    public void setup() {
+        expression = createExpression(terms, operands.equals("fractional"), new Random(0));
+        lastNumber = expression.getNumber(terms - 1);
+        lastOperator = terms > 1 ? expression.getOperator(terms - 2) : Expression.Operator.ADD;
+    }
+
+    /**
+     * Evaluate the whole expression. The scale is changed on every call so that the
+     * running state kept by the expression can't be reused.
+     */
+    @Benchmark
+    public BigDecimal evaluate() {
+        scale = (scale == 8) ? 9 : 8;
+        return expression.evaluate(priority, scale, RoundingMode.HALF_UP);
+    }
+
+    /**
+     * Remove the last term, append it again and evaluate, like when the user
+     * erases the last number and enters an operator.
+     */
+    @Benchmark
+    public BigDecimal evaluateAfterAppend() {
+        if (terms > 1) {
+            expression.removeLastNumber();
+            expression.removeLastOperator();
+            expression.addOperator(lastOperator);
+            expression.addNumber(lastNumber);
+        }
+        return expression.evaluate(priority, 8, RoundingMode.HALF_UP);
+    }
+
+    /**
+     * Create an expression with random operands and operators.
+     * @param terms      Number of operands.
+     * @param fractional Whether operands have fraction digits or not.
+     */
+    static Expression createExpression(int terms, boolean fractional, Random random) {
+        Expression expr = new Expression();
+        Expression.Operator[] operators = Expression.Operator.values();
+        for (int i = 0; i < terms; i++) {
+            if (i > 0) {
+                expr.addOperator(operators[random.nextInt(operators.length)]);
+            }
+            // Operands are never zero to avoid division by zero.
+            long value = 1 + random.nextInt(99_999);
+            expr.addNumber(BigDecimal.valueOf(value, fractional ? 1 + random.nextInt(3) : 0));
+        }
+        return expr;
+    }
+
+}
@@ -0,0 +1,58 @@
+package com.github.inbalboa.calcdialog;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.text.DecimalFormat;
+import java.text.NumberFormat;
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks for {@link Expression#format(NumberFormat)} with different number formats.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FormatBenchmark {
+
+    @Param({"10", "100", "1000"})
+    public int terms;
+
+    @Param({"default", "french", "currency", "pattern"})
+    public String format;
+
+    private Expression expression;
+    private NumberFormat nbFormat;
+
+    @Setup
+    public void setup() {
+        expression = ExpressionBenchmark.createExpression(terms, true, new Random(0));
+        nbFormat = switch (format) {
+            case "french" -> NumberFormat.getInstance(Locale.FRANCE);
+            case "currency" -> NumberFormat.getCurrencyInstance(Locale.US);
+            case "pattern" -> new DecimalFormat("#,##0.00;(#,##0.00)");
+            default -> NumberFormat.getInstance(Locale.US);
+        };
+        nbFormat.setMaximumFractionDigits(8);
+    }
+
+    @Benchmark
+    public String format() {
+        return expression.format(nbFormat);
+    }
+
+}
@@ -0,0 +1,82 @@
+package com.github.inbalboa.calcdialog;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.text.DecimalFormat;
+import java.text.NumberFormat;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks for saving and restoring the number format of the settings with
+ * {@link NumberFormatCodec}, compared to Java serialization as done by {@code Bundle.putSerializable}.
+ * The sizes of both encodings are compared in {@link NumberFormatCodecTest}.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class NumberFormatBenchmark {
+
+    @Param({"default", "currency", "pattern"})
+    public String format;
+
+    private DecimalFormat nbFormat;
+    private byte[] encoded;
+    private byte[] serialized;
+
+    @Setup
+    public void setup() throws IOException {
+        nbFormat = (DecimalFormat) switch (format) {
+            case "currency" -> NumberFormat.getCurrencyInstance(Locale.US);
+            case "pattern" -> new DecimalFormat("#,##0.00;(#,##0.00)");
+            default -> NumberFormat.getInstance(Locale.US);
+        };
+        encoded = encode();
+        serialized = serialize();
+    }
+
+    @Benchmark
+    public byte[] encode() {
+        return NumberFormatCodec.encode(nbFormat);
+    }
+
+    @Benchmark
+    public DecimalFormat decode() {
+        return NumberFormatCodec.decode(encoded);
+    }
+
+    @Benchmark
+    public byte[] serialize() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            out.writeObject(nbFormat);
+        }
+        return bytes.toByteArray();
+    }
+
+    @Benchmark
+    public NumberFormat deserialize() throws IOException, ClassNotFoundException {
+        try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(serialized))) {
+            return (NumberFormat) in.readObject();
+        }
+    }
+
+}
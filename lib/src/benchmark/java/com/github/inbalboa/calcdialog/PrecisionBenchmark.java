@@ -0,0 +1,97 @@
+package com.github.inbalboa.calcdialog;
+
+import androidx.annotation.Nullable;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.math.BigDecimal;
+import java.math.MathContext;
+import java.math.RoundingMode;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks for {@link Expression} evaluation modes: without precision, with a precision
+ * applied to every operation, and with fractions. Products of fractional numbers have digits
+ * adding up when exact, quotients need a division per term except with fractions.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PrecisionBenchmark {
+
+    @Param({"10", "100", "1000"})
+    public int terms;
+
+    @Param({"unbounded", "decimal64", "decimal128", "rational"})
+    public String mode;
+
+    private Expression products;
+    private Expression quotients;
+    @Nullable
+    private MathContext mathContext;
+    private int scale;
+
+    @Setup
+    public void setup() {
+        mathContext = switch (mode) {
+            case "decimal64" -> MathContext.DECIMAL64;
+            case "decimal128" -> MathContext.DECIMAL128;
+            default -> null;
+        };
+
+        // Operands close to 1 so that the result stays in a reasonable range.
+        Random random = new Random(0);
+        products = new Expression();
+        quotients = new Expression();
+        for (int i = 0; i < terms; i++) {
+            if (i > 0) {
+                products.addOperator(Expression.Operator.MULTIPLY);
+                quotients.addOperator(i % 2 == 0
+                        ? Expression.Operator.MULTIPLY : Expression.Operator.DIVIDE);
+            }
+            BigDecimal number = BigDecimal.valueOf(9_000 + random.nextInt(2_000), 4);
+            products.addNumber(number);
+            quotients.addNumber(number);
+        }
+    }
+
+    /**
+     * Evaluate a product. The scale is changed on every call so that the
+     * running state kept by the expression can't be reused.
+     */
+    @Benchmark
+    public BigDecimal evaluateProducts() {
+        return evaluate(products);
+    }
+
+    /**
+     * Evaluate alternating divisions and multiplications.
+     */
+    @Benchmark
+    public BigDecimal evaluateQuotients() {
+        return evaluate(quotients);
+    }
+
+    private BigDecimal evaluate(Expression expression) {
+        scale = (scale == 8) ? 9 : 8;
+        if (mode.equals("rational")) {
+            return expression.evaluateRational(true, scale, RoundingMode.HALF_UP, null);
+        }
+        return expression.evaluate(true, scale, RoundingMode.HALF_UP, mathContext);
+    }
+
+}
@@ -0,0 +1,188 @@
+package com.github.inbalboa.calcdialog;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.math.BigDecimal;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks for the {@link CalcPresenter} keystroke handling, with a view that does nothing.
+ * The presenter renders after each keystroke, as if each keystroke happened in its own frame.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PresenterBenchmark {
+
+    /** Number of terms entered before the expression is cleared. */
+    @Param({"10", "200"})
+    public int terms;
+
+    @Param({"true", "false"})
+    public boolean evaluateOnOperation;
+
+    private CalcPresenter presenter;
+    private StubView view;
+
+    @Setup
+    public void setup(Blackhole blackhole) {
+        view = new StubView(blackhole);
+        view.settings.setExpressionShown(true);
+        view.settings.setShouldEvaluateOnOperation(evaluateOnOperation);
+        view.settings.setExpressionEditable(true);
+        view.settings.setMinValue(null);
+        view.settings.setMaxValue(null);
+        presenter = new CalcPresenter();
+        presenter.attach(view, null);
+    }
+
+    /**
+     * Enter a number with a fractional part, then erase it digit by digit.
+     */
+    @Benchmark
+    public void digitsAndErase() {
+        presenter.onDigitBtnClicked(1);
+        presenter.render();
+        presenter.onDigitBtnClicked(2);
+        presenter.render();
+        presenter.onDigitBtnClicked(3);
+        presenter.render();
+        presenter.onDecimalSepBtnClicked();
+        presenter.render();
+        presenter.onDigitBtnClicked(4);
+        presenter.render();
+        presenter.onDigitBtnClicked(5);
+        presenter.render();
+        for (int i = 0; i < 6; i++) {
+            presenter.onErasedOnce();
+            presenter.render();
+        }
+    }
+
+    /**
+     * Enter an expression with {@link #terms} numbers and evaluate it.
+     */
+    @Benchmark
+    public void expression() {
+        for (int i = 0; i < terms; i++) {
+            presenter.onDigitBtnClicked(1 + i % 9);
+            presenter.render();
+            presenter.onDigitBtnClicked(i % 10);
+            presenter.render();
+            presenter.onOperatorBtnClicked(Expression.Operator.values()[i % 4]);
+            presenter.render();
+        }
+        presenter.onDigitBtnClicked(7);
+        presenter.render();
+        presenter.onEqualBtnClicked();
+        presenter.render();
+        presenter.onClearBtnClicked();
+        presenter.render();
+    }
+
+    /**
+     * Enter an expression with {@link #terms} numbers then erase it completely.
+     */
+    @Benchmark
+    public void expressionAndErase() {
+        for (int i = 0; i < terms; i++) {
+            presenter.onDigitBtnClicked(1 + i % 9);
+            presenter.render();
+            presenter.onOperatorBtnClicked(Expression.Operator.ADD);
+            presenter.render();
+        }
+        for (int i = 0; i < 2 * terms; i++) {
+            presenter.onErasedOnce();
+            presenter.render();
+        }
+        presenter.onClearBtnClicked();
+        presenter.render();
+    }
+
+    private static class StubView implements CalcView {
+        final CalcSettings settings = new CalcSettings();
+        final Blackhole blackhole;
+
+        StubView(Blackhole blackhole) {
+            this.blackhole = blackhole;
+        }
+
+        @NonNull
+        @Override
+        public CalcSettings getSettings() {
+            return settings;
+        }
+
+        @Override
+        public void exit() {}
+
+        @Override
+        public void sendValueResult(BigDecimal value) {
+            blackhole.consume(value);
+        }
+
+        @Override
+        public void addHistoryEntry(@NonNull String expression, @NonNull BigDecimal value) {}
+
+        @Override
+        public void setExpressionVisible(boolean visible) {}
+
+        @Override
+        public void setAnswerBtnVisible(boolean visible) {}
+
+        @Override
+        public void setSignBtnVisible(boolean visible) {}
+
+        @Override
+        public void setCancelBtnVisible(boolean visible) {}
+
+        @Override
+        public void setDecimalSepBtnEnabled(boolean enabled) {}
+
+        @Override
+        public void updateExpression(@NonNull String text) {
+            blackhole.consume(text);
+        }
+
+        @Override
+        public void updateCurrentValue(@Nullable String text) {
+            blackhole.consume(text);
+        }
+
+        @Override
+        public void showErrorText(int error) {}
+
+        @Override
+        public void showAnswerText() {}
+
+        @Override
+        public void showComputingText() {}
+
+        @Override
+        public void requestRender() {}
+
+        @Override
+        public void runInBackground(@NonNull Runnable task, @NonNull Runnable callback) {
+            task.run();
+            callback.run();
+        }
+    }
+
+}
@@ -0,0 +1,112 @@
+package com.github.inbalboa.calcdialog;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.math.BigDecimal;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks for saving and restoring an expression with {@link StateCodec}, compared to
+ * Java serialization of each number, as done by {@code Parcel.writeList} and
+ * {@code Bundle.putSerializable}. The sizes of both encodings are compared in
+ * {@link StateCodecTest}.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class StateBenchmark {
+
+    @Param({"10", "100", "1000"})
+    public int terms;
+
+    private Expression expression;
+    private byte[] encoded;
+    private byte[] serialized;
+
+    @Setup
+    public void setup() throws IOException {
+        expression = ExpressionBenchmark.createExpression(terms, true, new Random(0));
+        encoded = encode();
+        serialized = serialize();
+    }
+
+    @Benchmark
+    public byte[] encode() {
+        StateCodec.Writer writer = new StateCodec.Writer();
+        expression.encode(writer);
+        return writer.toByteArray();
+    }
+
+    @Benchmark
+    public Expression decode() {
+        return Expression.decode(new StateCodec.Reader(encoded));
+    }
+
+    @Benchmark
+    public byte[] serialize() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        int count = expression.getOperatorCount();
+        out.writeInt(count);
+        for (int i = 0; i < count; i++) {
+            out.writeByte(expression.getOperator(i).ordinal());
+        }
+        count = expression.getNumberCount();
+        out.writeInt(count);
+        for (int i = 0; i < count; i++) {
+            // Each value is serialized with its own stream, like a parcel does.
+            ByteArrayOutputStream value = new ByteArrayOutputStream();
+            try (ObjectOutputStream oos = new ObjectOutputStream(value)) {
+                oos.writeObject(expression.getNumber(i));
+            }
+            out.writeInt(value.size());
+            value.writeTo(out);
+        }
+        return bytes.toByteArray();
+    }
+
+    @Benchmark
+    public Expression deserialize() throws IOException, ClassNotFoundException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(serialized));
+        Expression expr = new Expression();
+        int count = in.readInt();
+        Expression.Operator[] operators = new Expression.Operator[count];
+        for (int i = 0; i < count; i++) {
+            operators[i] = Expression.Operator.values()[in.readByte()];
+        }
+        count = in.readInt();
+        for (int i = 0; i < count; i++) {
+            byte[] value = new byte[in.readInt()];
+            in.readFully(value);
+            try (ObjectInputStream ois = new ObjectInputStream(new ByteArrayInputStream(value))) {
+                expr.addNumber((BigDecimal) ois.readObject());
+            }
+            if (i < operators.length) {
+                expr.addOperator(operators[i]);
+            }
+        }
+        return expr;
+    }
+
+}
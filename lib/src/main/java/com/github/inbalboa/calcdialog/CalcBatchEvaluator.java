@@ -0,0 +1,287 @@
+package com.github.inbalboa.calcdialog;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.math.BigDecimal;
+import java.math.MathContext;
+import java.math.RoundingMode;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Evaluates many expressions in parallel, with the same arithmetic as the calculator dialog.
+ * This can be used to check values entered with the calculator, for example on a server.
+ */
+@SuppressWarnings("unused")
+public final class CalcBatchEvaluator {
+    /** Maximum number of items evaluated by a single task. */
+    private static final int TASK_SIZE = 64;
+
+    private CalcBatchEvaluator() {}
+
+    /**
+     * Evaluate expressions in parallel on the common fork join pool.
+     * @param items The expressions to evaluate.
+     * @return The results, in the same order as the items.
+     */
+    @NonNull
+    public static List<Result> evaluate(@NonNull List<Item> items) {
+        return evaluate(items, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Evaluate expressions in parallel on an executor.
+     * This method blocks until all expressions are evaluated. If the executor isn't a fork join
+     * pool, it must not be called from one of its threads: with a bounded executor whose threads
+     * are all busy, the tasks would wait for the calling thread, which waits for them.
+     * @param items    The expressions to evaluate.
+     * @param executor The executor used to evaluate the expressions. If it's a fork join pool,
+     *                 the work is split recursively, otherwise it's split in a fixed number of tasks.
+     * @return The results, in the same order as the items.
+     */
+    @NonNull
+    public static List<Result> evaluate(@NonNull List<Item> items, @NonNull Executor executor) {
+        Item[] itemsArr = items.toArray(new Item[0]);
+        Result[] results = new Result[itemsArr.length];
+        if (itemsArr.length <= TASK_SIZE) {
+            evaluateRange(itemsArr, results, 0, itemsArr.length);
+        } else if (executor instanceof ForkJoinPool pool) {
+            pool.invoke(new EvaluateTask(itemsArr, results, 0, itemsArr.length));
+        } else {
+            evaluateOnExecutor(itemsArr, results, executor);
+        }
+        return Collections.unmodifiableList(Arrays.asList(results));
+    }
+
+    private static void evaluateOnExecutor(Item[] items, Result[] results, Executor executor) {
+        // Use a few tasks per processor so that work is balanced if some items take longer.
+        int taskCount = Math.min(Runtime.getRuntime().availableProcessors() * 4,
+                (items.length + TASK_SIZE - 1) / TASK_SIZE);
+        CountDownLatch latch = new CountDownLatch(taskCount);
+        for (int i = 0; i < taskCount; i++) {
+            int start = (int) ((long) items.length * i / taskCount);
+            int end = (int) ((long) items.length * (i + 1) / taskCount);
+            executor.execute(() -> {
+                try {
+                    evaluateRange(items, results, start, end);
+                } finally {
+                    latch.countDown();
+                }
+            });
+        }
+
+        boolean interrupted = false;
+        while (true) {
+            try {
+                latch.await();
+                break;
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static void evaluateRange(Item[] items, Result[] results, int start, int end) {
+        for (int i = start; i < end; i++) {
+            results[i] = items[i].evaluate();
+        }
+    }
+
+    private static class EvaluateTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final Item[] items;
+        private final Result[] results;
+        private final int start;
+        private final int end;
+
+        EvaluateTask(Item[] items, Result[] results, int start, int end) {
+            this.items = items;
+            this.results = results;
+            this.start = start;
+            this.end = end;
+        }
+
+        @Override
+        protected void compute() {
+            if (end - start <= TASK_SIZE) {
+                evaluateRange(items, results, start, end);
+            } else {
+                int mid = (start + end) >>> 1;
+                invokeAll(new EvaluateTask(items, results, start, mid),
+                        new EvaluateTask(items, results, mid, end));
+            }
+        }
+    }
+
+    /**
+     * An expression to evaluate, built from its first number followed by operations.
+     * An item must not be modified while it's being evaluated.
+     */
+    public static final class Item {
+        private final Expression expression = new Expression();
+        private boolean isOrderOfOperationsApplied = true;
+        private int scale = 8;
+        @NonNull
+        private RoundingMode roundingMode = RoundingMode.HALF_EVEN;
+        @Nullable
+        private MathContext mathContext;
+        private boolean isRationalEvaluation;
+
+        /**
+         * @param first The first number of the expression.
+         */
+        public Item(@NonNull BigDecimal first) {
+            expression.addNumber(first);
+        }
+
+        public Item add(@NonNull BigDecimal number) {
+            return append(Expression.Operator.ADD, number);
+        }
+
+        public Item subtract(@NonNull BigDecimal number) {
+            return append(Expression.Operator.SUBTRACT, number);
+        }
+
+        public Item multiply(@NonNull BigDecimal number) {
+            return append(Expression.Operator.MULTIPLY, number);
+        }
+
+        public Item divide(@NonNull BigDecimal number) {
+            return append(Expression.Operator.DIVIDE, number);
+        }
+
+        private Item append(Expression.Operator operator, BigDecimal number) {
+            expression.addOperator(operator);
+            expression.addNumber(number);
+            return this;
+        }
+
+        /**
+         * Set whether to apply the operation priority, like
+         * {@link CalcSettings#setOrderOfOperationsApplied(boolean)}. By default it's applied.
+         * @param isApplied Whether to apply operation priority or not.
+         * @return The item
+         */
+        public Item setOrderOfOperationsApplied(boolean isApplied) {
+            isOrderOfOperationsApplied = isApplied;
+            return this;
+        }
+
+        /**
+         * Set the scale of division results, like the maximum fraction digits of the
+         * number format used by the calculator. Default scale is 8.
+         * @param scale The scale.
+         * @return The item
+         */
+        public Item setScale(int scale) {
+            this.scale = scale;
+            return this;
+        }
+
+        /**
+         * Set the rounding mode of division results, like the rounding mode of the
+         * number format used by the calculator. Default rounding mode is half even.
+         * @param roundingMode The rounding mode, can't be {@link RoundingMode#UNNECESSARY}.
+         * @return The item
+         */
+        public Item setRoundingMode(@NonNull RoundingMode roundingMode) {
+            if (roundingMode == RoundingMode.UNNECESSARY) {
+                throw new IllegalArgumentException("Cannot use RoundingMode.UNNECESSARY as a rounding mode.");
+            }
+            this.roundingMode = roundingMode;
+            return this;
+        }
+
+        /**
+         * Set a precision to which the result of every operation is rounded, like
+         * {@link CalcSettings#setMathContext(MathContext)}. By default, there's none.
+         * @param mathContext The precision and rounding mode, or null for none.
+         * @return The item
+         */
+        public Item setMathContext(@Nullable MathContext mathContext) {
+            if (mathContext != null && mathContext.getRoundingMode() == RoundingMode.UNNECESSARY) {
+                throw new IllegalArgumentException("Cannot use RoundingMode.UNNECESSARY as a rounding mode.");
+            }
+            this.mathContext = mathContext;
+            return this;
+        }
+
+        /**
+         * Set whether to evaluate with exact fractions, like
+         * {@link CalcSettings#setRationalEvaluation(boolean)}. By default, it's not.
+         * @param enabled Whether to evaluate with fractions or not.
+         * @return The item
+         */
+        public Item setRationalEvaluation(boolean enabled) {
+            isRationalEvaluation = enabled;
+            return this;
+        }
+
+        private Result evaluate() {
+            // Synchronized in case the same item is evaluated twice at the same time,
+            // since the expression keeps its running evaluation state.
+            synchronized (expression) {
+                try {
+                    BigDecimal value;
+                    if (isRationalEvaluation) {
+                        value = expression.evaluateRational(isOrderOfOperationsApplied,
+                                scale, roundingMode, mathContext);
+                    } else {
+                        value = expression.evaluate(isOrderOfOperationsApplied,
+                                scale, roundingMode, mathContext);
+                    }
+                    return new Result(value, null);
+                } catch (ArithmeticException e) {
+                    return new Result(null, e);
+                }
+            }
+        }
+    }
+
+    /**
+     * The result of an evaluated item, either a value or an error.
+     */
+    public static final class Result {
+        @Nullable
+        private final BigDecimal value;
+        @Nullable
+        private final ArithmeticException error;
+
+        private Result(@Nullable BigDecimal value, @Nullable ArithmeticException error) {
+            this.value = value;
+            this.error = error;
+        }
+
+        /**
+         * @return The result value, or null if an error occurred.
+         */
+        @Nullable
+        public BigDecimal getValue() {
+            return value;
+        }
+
+        /**
+         * @return The error that occurred during evaluation, like a division by zero,
+         * or null if there was no error.
+         */
+        @Nullable
+        public ArithmeticException getError() {
+            return error;
+        }
+
+        public boolean isSuccessful() {
+            return error == null;
+        }
+    }
+
+}
@@ -4,33 +4,40 @@ import static android.view.KeyEvent.ACTION_DOWN;
 import static android.view.KeyEvent.ACTION_UP;
 
 import android.app.Dialog;
+import android.content.ClipData;
+import android.content.ClipboardManager;
 import android.content.Context;
 import android.content.DialogInterface;
 import android.content.res.Resources;
-import android.content.res.TypedArray;
 import android.graphics.Rect;
 import android.os.Bundle;
-import android.os.SystemClock;
+import android.os.Handler;
+import android.os.Looper;
 import android.util.DisplayMetrics;
+import android.util.Log;
+import android.view.Choreographer;
 import android.view.ContextThemeWrapper;
 import android.view.KeyEvent;
 import android.view.LayoutInflater;
-import android.view.MotionEvent;
 import android.view.View;
 import android.view.ViewGroup;
 import android.view.Window;
 import android.widget.TextView;
+import android.widget.Toast;
 
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 import androidx.appcompat.app.AppCompatDialogFragment;
-import androidx.appcompat.content.res.AppCompatResources;
+import androidx.fragment.app.FragmentActivity;
 
 import com.github.inbalboa.calcdialog.databinding.DialogCalcBinding;
 
+import java.io.IOException;
 import java.math.BigDecimal;
 import java.util.Objects;
 import java.util.Optional;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 /**
  * Dialog with calculator for entering and calculating a number.
@@ -46,14 +53,62 @@ public class CalcDialog extends AppCompatDialogFragment {
     private static final int TEXT_INDEX_DEC_SEP = 15;
     private static final int TEXT_INDEX_EQUAL = 16;
 
+    private static final String TAG = CalcDialog.class.getSimpleName();
+
+    /**
+     * Executor evaluating large expressions and writing history entries for all dialogs,
+     * created when first needed.
+     */
+    @Nullable
+    private static ExecutorService backgroundExecutor;
+
+    private static final Handler mainHandler = new Handler(Looper.getMainLooper());
+
     private DialogCalcBinding binding;
 
     private Context context;
+    private int style;
     private CalcPresenter presenter;
 
     private CalcSettings settings = new CalcSettings();
 
-    private CharSequence[] errorMessages;
+    /** Styled attributes resolved for the dialog style, cached by theme. */
+    private CalcDialogAttributes attrs;
+
+    /** Numpad layout of the digit buttons, null if not set up yet. */
+    @Nullable
+    private CalcNumpadLayout digitsLayout;
+
+    /** State to restore in the presenter when the dialog is shown. */
+    @Nullable
+    private Bundle presenterState;
+
+    // Dialog kept when it's dismissed if the dialog is retained, with the activity and
+    // style it was created for, see CalcSettings#setDialogRetained.
+    @Nullable
+    private Dialog retainedDialog;
+    @Nullable
+    private Context retainedActivity;
+    private int retainedStyle;
+
+    private final CalcView calcView = new DialogView();
+
+    /** Listener set with {@link #setMetricsListener(CalcMetricsListener)}. */
+    @Nullable
+    private CalcMetricsListener metricsListener;
+
+    /** Metrics collected since the last report, null if there's no metrics listener. */
+    @Nullable
+    private CalcMetrics metrics;
+
+    /** Time at which the dialog was last created, if collecting metrics. */
+    private long createTime;
+
+    private final Runnable renderRunnable = () -> {
+        if (presenter != null) {
+            presenter.render();
+        }
+    };
 
     ////////// LIFECYCLE METHODS //////////
     @Override
@@ -61,53 +116,87 @@ public class CalcDialog extends AppCompatDialogFragment {
         super.onAttach(context);
 
         // Wrap calculator dialog's theme to context
-        TypedArray ta = context.obtainStyledAttributes(new int[]{R.attr.calcDialogStyle});
-        int style = ta.getResourceId(0, R.style.CalcDialogStyle);
-        ta.recycle();
+        attrs = CalcDialogAttributes.get(context);
+        style = attrs.style;
         this.context = new ContextThemeWrapper(context, style);
     }
 
+    /**
+     * Inflate the calculator layout on a background thread ahead of time, so that the next
+     * dialog shown in an activity opens faster. The layout is used by the next dialog created
+     * in this activity, and is released if the activity is destroyed before that.
+     * This must be called on the main thread, for example in the activity's {@code onCreate}.
+     * @param activity The activity in which the dialog will be shown.
+     */
+    public static void prewarm(@NonNull FragmentActivity activity) {
+        PrewarmedLayout.inflate(activity, CalcDialogAttributes.get(activity).style);
+    }
+
     @Override
     @NonNull
     public Dialog onCreateDialog(final Bundle state) {
-        binding = DialogCalcBinding.inflate(LayoutInflater.from(context));
-
-        // Get attributes
-        final TypedArray ta = context.obtainStyledAttributes(R.styleable.CalcDialog);
-        final CharSequence[] btnTexts = ta.getTextArray(R.styleable.CalcDialog_calcButtonTexts);
-        errorMessages = ta.getTextArray(R.styleable.CalcDialog_calcErrors);
-        final int maxDialogWidth = ta.getDimensionPixelSize(R.styleable.CalcDialog_calcDialogMaxWidth, -1);
-        final int maxDialogHeight = ta.getDimensionPixelSize(R.styleable.CalcDialog_calcDialogMaxHeight, -1);
-        final int separatorColor = getColor(ta, R.styleable.CalcDialog_calcDividerColor);
-        final int numberBtnColor = getColor(ta, R.styleable.CalcDialog_calcDigitBtnColor);
-        final int operationBtnColor = getColor(ta, R.styleable.CalcDialog_calcOperationBtnColor);
-        ta.recycle();
+        if (getMetricsListener() == null) {
+            metrics = null;
+        } else {
+            if (metrics == null) {
+                metrics = new CalcMetrics();
+            }
+            createTime = System.nanoTime();
+        }
+
+        if (retainedDialog != null) {
+            if (state == null && settings.isDialogRetained
+                    && retainedActivity == getActivity() && retainedStyle == style) {
+                // Reuse the dialog and its views, the presenter is reset when shown.
+                setupDigitButtons();
+                return retainedDialog;
+            }
+            retainedDialog = null;
+            retainedActivity = null;
+        }
+
+        View prewarmedLayout = PrewarmedLayout.take(getActivity(), style);
+        if (prewarmedLayout != null) {
+            binding = DialogCalcBinding.bind(prewarmedLayout);
+        } else {
+            binding = DialogCalcBinding.inflate(LayoutInflater.from(context));
+        }
+
+        final CharSequence[] btnTexts = attrs.btnTexts;
 
         // Erase button
         binding.calcBtnErase.setOnEraseListener(new CalcEraseButton.EraseListener() {
             @Override
             public void onErase() {
                 if (presenter != null) {
+                    long start = startEvent();
                     presenter.onErasedOnce();
+                    endEvent(start);
+                }
+            }
+
+            @Override
+            public void onErase(int times) {
+                if (presenter != null) {
+                    long start = startEvent();
+                    presenter.onErased(times);
+                    endEvent(start);
                 }
             }
 
             @Override
             public void onEraseAll() {
+                long start = startEvent();
                 presenter.onErasedAll();
+                endEvent(start);
             }
         });
 
         // Digit buttons
-        for (int i = 0; i < 10; i++) {
-            TextView digitBtn = binding.getRoot().findViewById(settings.numpadLayout.buttonIds[i]);
-            digitBtn.setText(btnTexts[i]);
-
-            final int digit = i;
-            digitBtn.setOnClickListener(v -> presenter.onDigitBtnClicked(digit));
-        }
+        digitsLayout = null;
+        setupDigitButtons();
 
-        binding.calcViewNumberBg.setBackgroundColor(numberBtnColor);
+        binding.calcViewNumberBg.setBackgroundColor(attrs.numberBtnColor);
 
         // Operator buttons
         binding.calcBtnAdd.setText(btnTexts[TEXT_INDEX_ADD]);
@@ -115,36 +204,44 @@ public class CalcDialog extends AppCompatDialogFragment {
         binding.calcBtnMul.setText(btnTexts[TEXT_INDEX_MUL]);
         binding.calcBtnDiv.setText(btnTexts[TEXT_INDEX_DIV]);
 
-        binding.calcBtnAdd.setOnClickListener(v -> presenter.onOperatorBtnClicked(Expression.Operator.ADD));
-        binding.calcBtnSub.setOnClickListener(v -> presenter.onOperatorBtnClicked(Expression.Operator.SUBTRACT));
-        binding.calcBtnMul.setOnClickListener(v -> presenter.onOperatorBtnClicked(Expression.Operator.MULTIPLY));
-        binding.calcBtnDiv.setOnClickListener(v -> presenter.onOperatorBtnClicked(Expression.Operator.DIVIDE));
+        binding.calcBtnAdd.setOnClickListener(timed(v -> presenter.onOperatorBtnClicked(Expression.Operator.ADD)));
+        binding.calcBtnSub.setOnClickListener(timed(v -> presenter.onOperatorBtnClicked(Expression.Operator.SUBTRACT)));
+        binding.calcBtnMul.setOnClickListener(timed(v -> presenter.onOperatorBtnClicked(Expression.Operator.MULTIPLY)));
+        binding.calcBtnDiv.setOnClickListener(timed(v -> presenter.onOperatorBtnClicked(Expression.Operator.DIVIDE)));
 
-        binding.calcViewOpBg.setBackgroundColor(operationBtnColor);
+        binding.calcViewOpBg.setBackgroundColor(attrs.operationBtnColor);
 
         // Sign button: +/-
         binding.calcBtnSign.setText(btnTexts[TEXT_INDEX_SIGN]);
-        binding.calcBtnSign.setOnClickListener(v -> presenter.onSignBtnClicked());
+        binding.calcBtnSign.setOnClickListener(timed(v -> presenter.onSignBtnClicked()));
 
         // Decimal separator button
         binding.calcBtnDecimal.setText(btnTexts[TEXT_INDEX_DEC_SEP]);
-        binding.calcBtnDecimal.setOnClickListener(v -> presenter.onDecimalSepBtnClicked());
+        binding.calcBtnDecimal.setOnClickListener(timed(v -> presenter.onDecimalSepBtnClicked()));
 
         // Equal button
         binding.calcBtnEqual.setText(btnTexts[TEXT_INDEX_EQUAL]);
-        binding.calcBtnEqual.setOnClickListener(v -> presenter.onEqualBtnClicked());
+        binding.calcBtnEqual.setOnClickListener(timed(v -> presenter.onEqualBtnClicked()));
+
+        // Long click on the value to paste an expression
+        binding.calcTxvValue.setOnLongClickListener(v -> {
+            long start = startEvent();
+            boolean pasted = pasteFromClipboard();
+            endEvent(start);
+            return pasted;
+        });
 
         // Answer button
-        binding.calcBtnAnswer.setOnClickListener(v -> presenter.onAnswerBtnClicked());
+        binding.calcBtnAnswer.setOnClickListener(timed(v -> presenter.onAnswerBtnClicked()));
 
 //         Divider
-        binding.calcViewHeaderDivider.setBackgroundColor(separatorColor);
-        binding.calcViewFooterDivider.setBackgroundColor(separatorColor);
+        binding.calcViewHeaderDivider.setBackgroundColor(attrs.separatorColor);
+        binding.calcViewFooterDivider.setBackgroundColor(attrs.separatorColor);
 
         // Dialog buttons
-        binding.calcBtnClear.setOnClickListener(v -> presenter.onClearBtnClicked());
-        binding.calcBtnCancel.setOnClickListener(v -> presenter.onCancelBtnClicked());
-        binding.calcBtnOk.setOnClickListener(v -> presenter.onOkBtnClicked());
+        binding.calcBtnClear.setOnClickListener(timed(v -> presenter.onClearBtnClicked()));
+        binding.calcBtnCancel.setOnClickListener(timed(v -> presenter.onCancelBtnClicked()));
+        binding.calcBtnOk.setOnClickListener(timed(v -> presenter.onOkBtnClicked()));
 
         // Set up dialog
         final Dialog dialog = new Dialog(context);
@@ -152,129 +249,71 @@ public class CalcDialog extends AppCompatDialogFragment {
         Window window = Objects.requireNonNull(dialog.getWindow());
         window.setBackgroundDrawableResource(android.R.color.transparent);
         dialog.setOnShowListener(dialogInterface -> {
-            // Get maximum dialog dimensions
-            Rect fgPadding = new Rect();
-            window.getDecorView().getBackground().getPadding(fgPadding);
-            DisplayMetrics metrics = Resources.getSystem().getDisplayMetrics();
-            int height = metrics.heightPixels - fgPadding.top - fgPadding.bottom;
-            int width = metrics.widthPixels - fgPadding.top - fgPadding.bottom;
-
-            // Set dialog's dimensions
-            if (width > maxDialogWidth) width = maxDialogWidth;
-            if (height > maxDialogHeight) height = maxDialogHeight;
-            window.setLayout(width, height);
-
-            // Set dialog's content
             View view = binding.getRoot();
-            view.setLayoutParams(new ViewGroup.LayoutParams(width, height));
-            dialog.setContentView(view);
+            if (view.getParent() == null) {
+                // Get maximum dialog dimensions
+                Rect fgPadding = new Rect();
+                window.getDecorView().getBackground().getPadding(fgPadding);
+                DisplayMetrics metrics = Resources.getSystem().getDisplayMetrics();
+                int height = metrics.heightPixels - fgPadding.top - fgPadding.bottom;
+                int width = metrics.widthPixels - fgPadding.top - fgPadding.bottom;
+
+                // Set dialog's dimensions
+                if (width > attrs.maxDialogWidth) width = attrs.maxDialogWidth;
+                if (height > attrs.maxDialogHeight) height = attrs.maxDialogHeight;
+                window.setLayout(width, height);
+
+                // Set dialog's content
+                view.setLayoutParams(new ViewGroup.LayoutParams(width, height));
+                dialog.setContentView(view);
+            }
+            // Otherwise the dialog is retained and its content is already set.
 
             // Presenter
-            presenter = new CalcPresenter();
-            presenter.attach(CalcDialog.this, state);
-        });
-        dialog.setOnKeyListener((dialogInterface, i, keyEvent) -> {
-            if (keyEvent == null) {
-                return false;
+            if (presenter == null) {
+                presenter = new CalcPresenter();
             }
-
-            int keyCode = keyEvent.getKeyCode();
-
-            if (keyEvent.getAction() == ACTION_DOWN) {
-                if (keyCode == KeyEvent.KEYCODE_DEL) {
-                    MotionEvent motionEvent = MotionEvent.obtain(
-                            SystemClock.uptimeMillis(),
-                            SystemClock.uptimeMillis() + 100,
-                            MotionEvent.ACTION_DOWN,
-                            0f,
-                            0f,
-                            0
-                    );
-                    binding.calcBtnErase.dispatchTouchEvent(motionEvent);
-                    return true;
+            presenter.setMetrics(metrics);
+            presenter.attach(calcView, presenterState);
+            presenterState = null;
+
+            if (metrics != null) {
+                long created = createTime;
+                Choreographer.getInstance().postFrameCallback(frameTimeNanos -> {
+                    if (metrics != null) {
+                        metrics.recordOpen(System.nanoTime() - created);
+                    }
+                });
+            }
+        });
+        dialog.setOnKeyListener((dialogInterface, keyCode, keyEvent) -> {
+            CalcKeyAction action = settings.getKeyAction(keyCode);
+            if (action == null && keyEvent.isCtrlPressed()) {
+                if (keyCode == KeyEvent.KEYCODE_V) {
+                    action = CalcKeyAction.PASTE;
+                } else if (keyCode == KeyEvent.KEYCODE_Z) {
+                    action = keyEvent.isShiftPressed() ? CalcKeyAction.REDO : CalcKeyAction.UNDO;
+                } else if (keyCode == KeyEvent.KEYCODE_Y) {
+                    action = CalcKeyAction.REDO;
                 }
             }
+            if (action == null || presenter == null) {
+                return false;
+            }
 
-            if (keyEvent.getAction() == ACTION_UP) {
-                switch (keyCode) {
-                    case KeyEvent.KEYCODE_NUMPAD_ENTER:
-                    case KeyEvent.KEYCODE_ENTER:
-                        binding.calcBtnOk.performClick();
-                        return true;
-                    case KeyEvent.KEYCODE_DEL:
-                        binding.calcBtnErase.performClick();
-                        return true;
-                    case KeyEvent.KEYCODE_ESCAPE:
-                        binding.calcBtnClear.performClick();
-                        return true;
-                    case KeyEvent.KEYCODE_NUMPAD_ADD:
-                    case KeyEvent.KEYCODE_PLUS:
-                        binding.calcBtnAdd.performClick();
-                        return true;
-                    case KeyEvent.KEYCODE_NUMPAD_SUBTRACT:
-                    case KeyEvent.KEYCODE_MINUS:
-                        binding.calcBtnSub.performClick();
-                        return true;
-                    case KeyEvent.KEYCODE_NUMPAD_MULTIPLY:
-                    case KeyEvent.KEYCODE_N:
-                        binding.calcBtnMul.performClick();
-                        return true;
-                    case KeyEvent.KEYCODE_NUMPAD_DIVIDE:
-                    case KeyEvent.KEYCODE_SLASH:
-                        binding.calcBtnDiv.performClick();
-                        return true;
-                    case KeyEvent.KEYCODE_NUMPAD_EQUALS:
-                    case KeyEvent.KEYCODE_EQUALS:
-                        binding.calcBtnEqual.performClick();
-                        return true;
-                    case KeyEvent.KEYCODE_NUMPAD_DOT:
-                    case KeyEvent.KEYCODE_PERIOD:
-                        binding.calcBtnDecimal.performClick();
-                        return true;
-                    case KeyEvent.KEYCODE_NUMPAD_0:
-                    case KeyEvent.KEYCODE_0:
-                        binding.calcBtn24.performClick();
-                        return true;
-                    case KeyEvent.KEYCODE_NUMPAD_1:
-                    case KeyEvent.KEYCODE_1:
-                        binding.calcBtn13.performClick();
-                        return true;
-                    case KeyEvent.KEYCODE_NUMPAD_2:
-                    case KeyEvent.KEYCODE_2:
-                        binding.calcBtn23.performClick();
-                        return true;
-                    case KeyEvent.KEYCODE_NUMPAD_3:
-                    case KeyEvent.KEYCODE_3:
-                        binding.calcBtn33.performClick();
-                        return true;
-                    case KeyEvent.KEYCODE_NUMPAD_4:
-                    case KeyEvent.KEYCODE_4:
-                        binding.calcBtn12.performClick();
-                        return true;
-                    case KeyEvent.KEYCODE_NUMPAD_5:
-                    case KeyEvent.KEYCODE_5:
-                        binding.calcBtn22.performClick();
-                        return true;
-                    case KeyEvent.KEYCODE_NUMPAD_6:
-                    case KeyEvent.KEYCODE_6:
-                        binding.calcBtn32.performClick();
-                        return true;
-                    case KeyEvent.KEYCODE_NUMPAD_7:
-                    case KeyEvent.KEYCODE_7:
-                        binding.calcBtn11.performClick();
-                        return true;
-                    case KeyEvent.KEYCODE_NUMPAD_8:
-                    case KeyEvent.KEYCODE_8:
-                        binding.calcBtn21.performClick();
-                        return true;
-                    case KeyEvent.KEYCODE_NUMPAD_9:
-                    case KeyEvent.KEYCODE_9:
-                        binding.calcBtn31.performClick();
-                        return true;
+            // Actions are triggered when the key is released, except for erasing which is done
+            // when the key is pressed, and repeated while it's held down.
+            int keyAction = keyEvent.getAction();
+            if (action == CalcKeyAction.ERASE ? keyAction == ACTION_DOWN : keyAction == ACTION_UP) {
+                long start = startEvent();
+                if (action == CalcKeyAction.PASTE) {
+                    pasteFromClipboard();
+                } else {
+                    presenter.onKeyAction(action);
                 }
+                endEvent(start);
             }
-
-            return false;
+            return true;
         });
 
         if (state != null) {
@@ -282,21 +321,100 @@ public class CalcDialog extends AppCompatDialogFragment {
                     .map(CalcSettings.class::cast)
                     .orElse(new CalcSettings());
         }
+        presenterState = state;
+
+        if (settings.isDialogRetained) {
+            retainedDialog = dialog;
+            retainedActivity = getActivity();
+            retainedStyle = style;
+        }
 
         return dialog;
     }
 
-    private int getColor(TypedArray ta, int index) {
-        int resId = ta.getResourceId(index, 0);
-        if (resId == 0) {
-            // Raw color value e.g.: #FF000000
-            return ta.getColor(index, 0);
-        } else {
-            // Color reference pointing to color state list or raw color.
-            return AppCompatResources.getColorStateList(context, resId).getDefaultColor();
+    /**
+     * Set the text and listener of digit buttons for the numpad layout, if not already set.
+     */
+    private void setupDigitButtons() {
+        if (digitsLayout == settings.numpadLayout) return;
+        digitsLayout = settings.numpadLayout;
+
+        for (int i = 0; i < 10; i++) {
+            TextView digitBtn = binding.getRoot().findViewById(digitsLayout.buttonIds[i]);
+            digitBtn.setText(attrs.btnTexts[i]);
+
+            final int digit = i;
+            digitBtn.setOnClickListener(timed(v -> presenter.onDigitBtnClicked(digit)));
         }
     }
 
+    /**
+     * Wrap a click listener so that its handling time is recorded, if collecting metrics.
+     * It's always wrapped since the listeners are kept if the dialog is retained, and metrics
+     * can be set in between.
+     */
+    private View.OnClickListener timed(View.OnClickListener listener) {
+        return v -> {
+            long start = startEvent();
+            listener.onClick(v);
+            endEvent(start);
+        };
+    }
+
+    /**
+     * @return The time at which an event handling starts, or 0 if not collecting metrics.
+     */
+    private long startEvent() {
+        return metrics != null ? System.nanoTime() : 0;
+    }
+
+    private void endEvent(long start) {
+        if (metrics != null) {
+            metrics.recordEvent(System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * Report the metrics collected since the last report to the listener, if any.
+     */
+    private void reportMetrics() {
+        CalcMetricsListener listener = getMetricsListener();
+        if (metrics != null && listener != null && !metrics.isEmpty()) {
+            listener.onMetricsReported(settings.requestCode, metrics);
+            metrics = new CalcMetrics();
+            if (presenter != null) {
+                presenter.setMetrics(metrics);
+            }
+        }
+    }
+
+    /**
+     * Paste the text from the clipboard in the calculator, if it's a valid expression.
+     * Otherwise, the position of the error is shown in a toast.
+     * @return Whether the text was pasted.
+     */
+    private boolean pasteFromClipboard() {
+        ClipboardManager clipboard = (ClipboardManager) context.getSystemService(Context.CLIPBOARD_SERVICE);
+        if (presenter == null || clipboard == null || !clipboard.hasPrimaryClip()) {
+            return false;
+        }
+        ClipData clip = clipboard.getPrimaryClip();
+        if (clip == null || clip.getItemCount() == 0) {
+            return false;
+        }
+        CharSequence text = clip.getItemAt(0).coerceToText(context);
+        if (text == null) {
+            return false;
+        }
+        int errorIndex = presenter.onPasted(text);
+        if (errorIndex != -1) {
+            Toast.makeText(context, context.getString(R.string.calc_dialog_paste_error, errorIndex + 1),
+                    Toast.LENGTH_SHORT).show();
+            return false;
+        }
+        return true;
+    }
+
     @Override
     public void onDismiss(@NonNull DialogInterface dialog) {
         super.onDismiss(dialog);
@@ -304,6 +422,7 @@ public class CalcDialog extends AppCompatDialogFragment {
             // On config change, presenter is detached before this is called
             presenter.onDismissed();
         }
+        reportMetrics();
     }
 
     @Override
@@ -317,15 +436,41 @@ public class CalcDialog extends AppCompatDialogFragment {
 
     @Override
     public void onDetach() {
+        reportMetrics();
         super.onDetach();
         if (presenter != null) {
             presenter.detach();
-            presenter = null;
+            if (retainedDialog == null) {
+                presenter = null;
+            }
+            // Otherwise the presenter is kept with the dialog, and is attached again when shown.
         }
 
         context = null;
     }
 
+    /**
+     * Set a listener to which performance metrics are reported. If not set, the parent
+     * fragment or the activity is used if it implements {@link CalcMetricsListener}.
+     * Metrics are only collected if there's a listener.
+     * @param listener The listener, or null for none.
+     */
+    public void setMetricsListener(@Nullable CalcMetricsListener listener) {
+        metricsListener = listener;
+    }
+
+    @Nullable
+    private CalcMetricsListener getMetricsListener() {
+        if (metricsListener != null) {
+            return metricsListener;
+        } else if (getParentFragment() instanceof CalcMetricsListener) {
+            return (CalcMetricsListener) getParentFragment();
+        } else if (getActivity() instanceof CalcMetricsListener) {
+            return (CalcMetricsListener) getActivity();
+        }
+        return null;
+    }
+
     @Nullable
     private CalcDialogCallback getCallback() {
         CalcDialogCallback cb = null;
@@ -353,62 +498,129 @@ public class CalcDialog extends AppCompatDialogFragment {
         return settings;
     }
 
-    ////////// VIEW METHODS //////////
-    void exit() {
-        dismissAllowingStateLoss();
+    public void setCancelBtnVisible(boolean visible) {
+        binding.calcBtnCancel.setVisibility(visible ? View.VISIBLE : View.INVISIBLE);
     }
 
-    void sendValueResult(BigDecimal value) {
-        CalcDialogCallback cb = getCallback();
-        if (cb != null) {
-            cb.onValueEntered(settings.requestCode, value);
-        } else {
-            // Use Fragment Result API as fallback
-            Bundle result = new Bundle();
-            result.putSerializable("value", value);
-            result.putInt("requestCode", settings.requestCode);
-            getParentFragmentManager().setFragmentResult("calc_dialog_result", result);
+    @NonNull
+    private static ExecutorService getBackgroundExecutor() {
+        if (backgroundExecutor == null) {
+            backgroundExecutor = Executors.newSingleThreadExecutor(r -> {
+                Thread thread = new Thread(r, "CalcDialog-background");
+                thread.setDaemon(true);
+                return thread;
+            });
         }
+        return backgroundExecutor;
     }
 
-    void setExpressionVisible(boolean visible) {
-        binding.calcHsvExpression.setVisibility(visible ? View.VISIBLE : View.GONE);
-    }
+    ////////// VIEW METHODS //////////
+    private class DialogView implements CalcView {
+        @NonNull
+        @Override
+        public CalcSettings getSettings() {
+            return settings;
+        }
 
-    void setAnswerBtnVisible(boolean visible) {
-        binding.calcBtnAnswer.setVisibility(visible ? View.VISIBLE : View.INVISIBLE);
-        binding.calcBtnEqual.setVisibility(visible ? View.INVISIBLE : View.VISIBLE);
-    }
+        @Override
+        public void exit() {
+            dismissAllowingStateLoss();
+        }
 
-    void setSignBtnVisible(boolean visible) {
-        binding.calcBtnSign.setVisibility(visible ? View.VISIBLE : View.INVISIBLE);
-    }
+        @Override
+        public void sendValueResult(BigDecimal value) {
+            CalcDialogCallback cb = getCallback();
+            if (cb != null) {
+                cb.onValueEntered(settings.requestCode, value);
+            } else {
+                // Use Fragment Result API as fallback
+                Bundle result = new Bundle();
+                result.putSerializable("value", value);
+                result.putInt("requestCode", settings.requestCode);
+                getParentFragmentManager().setFragmentResult("calc_dialog_result", result);
+            }
+        }
 
-    public void setCancelBtnVisible(boolean visible) {
-        binding.calcBtnCancel.setVisibility(visible ? View.VISIBLE : View.INVISIBLE);
-    }
+        @Override
+        public void setExpressionVisible(boolean visible) {
+            binding.calcHsvExpression.setVisibility(visible ? View.VISIBLE : View.GONE);
+        }
 
-    void setDecimalSepBtnEnabled(boolean enabled) {
-        binding.calcBtnDecimal.setEnabled(enabled);
-    }
+        @Override
+        public void setAnswerBtnVisible(boolean visible) {
+            binding.calcBtnAnswer.setVisibility(visible ? View.VISIBLE : View.INVISIBLE);
+            binding.calcBtnEqual.setVisibility(visible ? View.INVISIBLE : View.VISIBLE);
+        }
 
-    void updateExpression(@NonNull String text) {
-        binding.calcTxvExpression.setText(text);
+        @Override
+        public void setSignBtnVisible(boolean visible) {
+            binding.calcBtnSign.setVisibility(visible ? View.VISIBLE : View.INVISIBLE);
+        }
 
-        // Scroll to the end.
-        binding.calcHsvExpression.post(() -> binding.calcHsvExpression.fullScroll(View.FOCUS_RIGHT));
-    }
+        @Override
+        public void setCancelBtnVisible(boolean visible) {
+            CalcDialog.this.setCancelBtnVisible(visible);
+        }
 
-    void updateCurrentValue(@Nullable String text) {
-        binding.calcTxvValue.setText(text);
-    }
+        @Override
+        public void setDecimalSepBtnEnabled(boolean enabled) {
+            binding.calcBtnDecimal.setEnabled(enabled);
+        }
 
-    void showErrorText(int error) {
-        binding.calcTxvValue.setText(errorMessages[error]);
-    }
+        @Override
+        public void updateExpression(@NonNull String text) {
+            binding.calcTxvExpression.setText(text);
+
+            // Scroll to the end. This is called at most once per frame.
+            binding.calcHsvExpression.post(() -> binding.calcHsvExpression.fullScroll(View.FOCUS_RIGHT));
+        }
 
-    void showAnswerText() {
-        binding.calcTxvValue.setText(R.string.calc_answer);
+        @Override
+        public void updateCurrentValue(@Nullable String text) {
+            binding.calcTxvValue.setText(text);
+        }
+
+        @Override
+        public void showErrorText(int error) {
+            binding.calcTxvValue.setText(attrs.errorMessages[error]);
+        }
+
+        @Override
+        public void showAnswerText() {
+            binding.calcTxvValue.setText(R.string.calc_answer);
+        }
+
+        @Override
+        public void showComputingText() {
+            binding.calcTxvValue.setText(R.string.calc_computing);
+        }
+
+        @Override
+        public void requestRender() {
+            binding.getRoot().postOnAnimation(renderRunnable);
+        }
+
+        @Override
+        public void runInBackground(@NonNull Runnable task, @NonNull Runnable callback) {
+            getBackgroundExecutor().execute(() -> {
+                task.run();
+                mainHandler.post(callback);
+            });
+        }
+
+        @Override
+        public void addHistoryEntry(@NonNull String expression, @NonNull BigDecimal value) {
+            String name = Objects.requireNonNull(settings.historyName);
+            Context appContext = context.getApplicationContext();
+            long time = System.currentTimeMillis();
+            getBackgroundExecutor().execute(() -> {
+                try {
+                    CalcHistory.open(appContext, name).add(expression, value, time);
+                } catch (IOException e) {
+                    Log.e(TAG, "Failed to add history entry.", e);
+                }
+            });
+        }
     }
 
     public interface CalcDialogCallback {
@@ -421,4 +633,14 @@ public class CalcDialog extends AppCompatDialogFragment {
         void onValueEntered(int requestCode, @Nullable BigDecimal value);
     }
 
+    public interface CalcMetricsListener {
+        /**
+         * Called with the metrics collected since the dialog was shown,
+         * when it's dismissed or destroyed.
+         * @param requestCode dialog request code from {@link CalcSettings#getRequestCode()}.
+         * @param metrics     the metrics, aggregated in histograms.
+         */
+        void onMetricsReported(int requestCode, @NonNull CalcMetrics metrics);
+    }
+
 }
@@ -0,0 +1,103 @@
+package com.github.inbalboa.calcdialog;
+
+import android.content.ComponentCallbacks;
+import android.content.Context;
+import android.content.res.Configuration;
+import android.content.res.Resources;
+import android.content.res.TypedArray;
+import android.view.ContextThemeWrapper;
+
+import androidx.annotation.NonNull;
+import androidx.appcompat.content.res.AppCompatResources;
+
+import java.util.WeakHashMap;
+
+/**
+ * Values resolved from the calculator dialog styled attributes. Resolving them on each opening
+ * is slow, so they are cached for each activity theme, and the cache is cleared when the
+ * configuration changes. Must only be used on the main thread.
+ */
+final class CalcDialogAttributes {
+
+    /** The calculator dialog style, from {@link R.attr#calcDialogStyle}. */
+    final int style;
+
+    final CharSequence[] btnTexts;
+    final CharSequence[] errorMessages;
+    final int maxDialogWidth;
+    final int maxDialogHeight;
+    final int separatorColor;
+    final int numberBtnColor;
+    final int operationBtnColor;
+
+    /** Configuration with which the attributes were resolved. */
+    private final Configuration config;
+
+    // Attributes by activity theme. Themes are weak keys so that activities aren't leaked.
+    private static final WeakHashMap<Resources.Theme, CalcDialogAttributes> cache = new WeakHashMap<>();
+    private static boolean callbacksRegistered;
+
+    private CalcDialogAttributes(Context context, Configuration config) {
+        this.config = new Configuration(config);
+
+        TypedArray ta = context.obtainStyledAttributes(new int[]{R.attr.calcDialogStyle});
+        style = ta.getResourceId(0, R.style.CalcDialogStyle);
+        ta.recycle();
+
+        Context themedContext = new ContextThemeWrapper(context, style);
+        ta = themedContext.obtainStyledAttributes(R.styleable.CalcDialog);
+        btnTexts = ta.getTextArray(R.styleable.CalcDialog_calcButtonTexts);
+        errorMessages = ta.getTextArray(R.styleable.CalcDialog_calcErrors);
+        maxDialogWidth = ta.getDimensionPixelSize(R.styleable.CalcDialog_calcDialogMaxWidth, -1);
+        maxDialogHeight = ta.getDimensionPixelSize(R.styleable.CalcDialog_calcDialogMaxHeight, -1);
+        separatorColor = getColor(themedContext, ta, R.styleable.CalcDialog_calcDividerColor);
+        numberBtnColor = getColor(themedContext, ta, R.styleable.CalcDialog_calcDigitBtnColor);
+        operationBtnColor = getColor(themedContext, ta, R.styleable.CalcDialog_calcOperationBtnColor);
+        ta.recycle();
+    }
+
+    /**
+     * Get the attributes for the theme of a context, resolving them if not cached.
+     * @param context The context in which the dialog is shown, usually an activity.
+     */
+    @NonNull
+    static CalcDialogAttributes get(@NonNull Context context) {
+        if (!callbacksRegistered) {
+            context.getApplicationContext().registerComponentCallbacks(new ComponentCallbacks() {
+                @Override
+                public void onConfigurationChanged(@NonNull Configuration newConfig) {
+                    cache.clear();
+                }
+
+                @Override
+                public void onLowMemory() {
+                    cache.clear();
+                }
+            });
+            callbacksRegistered = true;
+        }
+
+        // The configuration is also checked since an activity can handle configuration changes
+        // itself, or have a configuration different from the application's.
+        Resources.Theme theme = context.getTheme();
+        Configuration config = context.getResources().getConfiguration();
+        CalcDialogAttributes attrs = cache.get(theme);
+        if (attrs == null || !attrs.config.equals(config)) {
+            attrs = new CalcDialogAttributes(context, config);
+            cache.put(theme, attrs);
+        }
+        return attrs;
+    }
+
+    private static int getColor(Context context, TypedArray ta, int index) {
+        int resId = ta.getResourceId(index, 0);
+        if (resId == 0) {
+            // Raw color value e.g.: #FF000000
+            return ta.getColor(index, 0);
+        } else {
+            // Color reference pointing to color state list or raw color.
+            return AppCompatResources.getColorStateList(context, resId).getDefaultColor();
+        }
+    }
+
+}
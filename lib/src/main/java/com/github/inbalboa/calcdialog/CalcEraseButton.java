@@ -3,8 +3,8 @@ package com.github.inbalboa.calcdialog;
 import android.annotation.SuppressLint;
 import android.content.Context;
 import android.content.res.TypedArray;
-import android.os.Handler;
 import android.util.AttributeSet;
+import android.view.Choreographer;
 import android.view.HapticFeedbackConstants;
 import android.view.MotionEvent;
 
@@ -28,10 +28,15 @@ public class CalcEraseButton extends AppCompatImageView {
     private final int eraseHoldSpeed;
     private final boolean eraseAllOnHold;
 
-    private final Handler eraseHandler;
-    private final Runnable eraseRunnable;
+    private final Choreographer.FrameCallback eraseFrameCallback;
     private boolean clickingDown;
 
+    /** Time at which the button was pressed, in the {@link System#nanoTime()} time base. */
+    private long downTimeNanos;
+
+    /** Number of erase events triggered since the hold delay elapsed, or -1 if it hasn't yet. */
+    private long holdEraseCount;
+
     private @Nullable EraseListener listener;
 
     public CalcEraseButton(Context context) {
@@ -52,18 +57,30 @@ public class CalcEraseButton extends AppCompatImageView {
         eraseAllOnHold = ta.getBoolean(R.styleable.CalcEraseButton_calcEraseAllOnHold, false);
         ta.recycle();
 
-        eraseHandler = new Handler();
-        eraseRunnable = new Runnable() {
+        // Erase events are triggered on each frame while held, as many as are due since the
+        // last frame, so that the erase rate doesn't depend on the frame rate.
+        eraseFrameCallback = new Choreographer.FrameCallback() {
             @Override
-            public void run() {
-                if (listener != null && clickingDown) {
-                    if (eraseAllOnHold) {
-                        listener.onEraseAll();
-                    } else {
-                        listener.onErase();
-                        eraseHandler.postDelayed(eraseRunnable, eraseHoldSpeed);
+            public void doFrame(long frameTimeNanos) {
+                if (listener == null || !clickingDown) return;
+
+                long heldMillis = (frameTimeNanos - downTimeNanos) / 1_000_000;
+                if (heldMillis >= eraseHoldDelay) {
+                    if (holdEraseCount < 0) {
+                        holdEraseCount = 0;
+                        performHapticFeedback(HapticFeedbackConstants.LONG_PRESS);
+                        if (eraseAllOnHold) {
+                            listener.onEraseAll();
+                            return;
+                        }
+                    }
+                    long count = (heldMillis - eraseHoldDelay) / Math.max(1, eraseHoldSpeed) + 1;
+                    if (count > holdEraseCount) {
+                        listener.onErase((int) Math.min(count - holdEraseCount, Integer.MAX_VALUE));
+                        holdEraseCount = count;
                     }
                 }
+                Choreographer.getInstance().postFrameCallback(this);
             }
         };
     }
@@ -71,6 +88,18 @@ public class CalcEraseButton extends AppCompatImageView {
     public interface EraseListener {
         void onErase();
         void onEraseAll();
+
+        /**
+         * Called when several erase events are due at once while the button is held down,
+         * so that they can be applied together. By default, {@link #onErase()} is called
+         * for each event.
+         * @param times The number of erase events.
+         */
+        default void onErase(int times) {
+            for (int i = 0; i < times; i++) {
+                onErase();
+            }
+        }
     }
 
     public void setOnEraseListener(@Nullable EraseListener listener) {
@@ -82,11 +111,8 @@ public class CalcEraseButton extends AppCompatImageView {
     public boolean onTouchEvent(MotionEvent event) {
         boolean superReturn = super.onTouchEvent(event);  // does performClick(), so ignore warning
 
-        if (event.getAction() == MotionEvent.ACTION_UP) {
-            if (listener != null && eraseHoldDelay != NO_HOLD_ERASE) {
-                eraseHandler.removeCallbacks(eraseRunnable);
-            }
-            clickingDown = false;
+        if (event.getAction() == MotionEvent.ACTION_UP || event.getAction() == MotionEvent.ACTION_CANCEL) {
+            stopHoldErase();
             return true;
 
         } else if (event.getAction() == MotionEvent.ACTION_DOWN) {
@@ -94,12 +120,13 @@ public class CalcEraseButton extends AppCompatImageView {
 
             if (listener != null) {
                 if (eraseHoldDelay != NO_HOLD_ERASE) {
-                    eraseHandler.postDelayed(eraseRunnable, eraseHoldDelay);
-                    eraseHandler.postDelayed(() -> {
-                        if (clickingDown) {
-                            performHapticFeedback(HapticFeedbackConstants.LONG_PRESS);
-                        }
-                    }, eraseHoldDelay);
+                    downTimeNanos = System.nanoTime();
+                    holdEraseCount = -1;
+                    // Choreographer is obtained here since the button can be inflated
+                    // on a background thread, where there's none.
+                    Choreographer choreographer = Choreographer.getInstance();
+                    choreographer.removeFrameCallback(eraseFrameCallback);
+                    choreographer.postFrameCallback(eraseFrameCallback);
                 }
 
                 if (eraseHoldDelay != 0) {
@@ -112,4 +139,17 @@ public class CalcEraseButton extends AppCompatImageView {
         return superReturn;
     }
 
+    @Override
+    protected void onDetachedFromWindow() {
+        super.onDetachedFromWindow();
+        stopHoldErase();
+    }
+
+    private void stopHoldErase() {
+        if (clickingDown && eraseHoldDelay != NO_HOLD_ERASE) {
+            Choreographer.getInstance().removeFrameCallback(eraseFrameCallback);
+        }
+        clickingDown = false;
+    }
+
 }
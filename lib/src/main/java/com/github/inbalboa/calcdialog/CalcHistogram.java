@@ -0,0 +1,119 @@
+package com.github.inbalboa.calcdialog;
+
+import androidx.annotation.NonNull;
+
+/**
+ * Histogram of non-negative values, like durations in nanoseconds or sizes in bytes,
+ * reported by {@link CalcMetrics}. Values are counted in buckets by powers of two:
+ * bucket 0 counts zeroes, and bucket {@code i} counts values from {@code 2^(i-1)}
+ * to {@code 2^i - 1}. The exact count, sum, minimum and maximum are also kept.
+ */
+@SuppressWarnings("unused")
+public final class CalcHistogram {
+    /** Number of buckets, enough for any non-negative long value. */
+    public static final int BUCKET_COUNT = 64;
+
+    private final long[] buckets = new long[BUCKET_COUNT];
+    private long count;
+    private long sum;
+    private long min = Long.MAX_VALUE;
+    private long max;
+
+    CalcHistogram() {}
+
+    void record(long value) {
+        if (value < 0) value = 0;
+        buckets[getBucketIndex(value)]++;
+        count++;
+        sum += value;
+        if (value < min) min = value;
+        if (value > max) max = value;
+    }
+
+    private static int getBucketIndex(long value) {
+        return Long.SIZE - Long.numberOfLeadingZeros(value);
+    }
+
+    /**
+     * @return The number of values recorded.
+     */
+    public long getCount() {
+        return count;
+    }
+
+    /**
+     * @return The sum of the values recorded.
+     */
+    public long getSum() {
+        return sum;
+    }
+
+    /**
+     * @return The smallest value recorded, or 0 if there's none.
+     */
+    public long getMin() {
+        return count == 0 ? 0 : min;
+    }
+
+    /**
+     * @return The largest value recorded, or 0 if there's none.
+     */
+    public long getMax() {
+        return max;
+    }
+
+    /**
+     * @return The mean of the values recorded, or 0 if there's none.
+     */
+    public double getMean() {
+        return count == 0 ? 0 : (double) sum / count;
+    }
+
+    /**
+     * Get an estimate of a percentile of the values recorded, which is the upper bound of the
+     * bucket containing it, limited to the maximum value. The estimate is at most twice the
+     * actual percentile.
+     * @param percentile A percentile, between 0 and 100.
+     * @return The estimated percentile, or 0 if no values were recorded.
+     */
+    public long getPercentile(double percentile) {
+        if (percentile < 0 || percentile > 100) {
+            throw new IllegalArgumentException("Percentile must be between 0 and 100.");
+        }
+        if (count == 0) return 0;
+
+        long rank = Math.max(1, (long) Math.ceil(percentile / 100 * count));
+        long seen = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            seen += buckets[i];
+            if (seen >= rank) {
+                return Math.min(getBucketUpperBound(i), max);
+            }
+        }
+        return max;
+    }
+
+    /**
+     * @param index A bucket index, from 0 to {@link #BUCKET_COUNT} - 1.
+     * @return The number of values recorded in a bucket.
+     */
+    public long getBucketCount(int index) {
+        return buckets[index];
+    }
+
+    /**
+     * @param index A bucket index, from 0 to {@link #BUCKET_COUNT} - 1.
+     * @return The largest value counted in a bucket.
+     */
+    public static long getBucketUpperBound(int index) {
+        return index == BUCKET_COUNT - 1 ? Long.MAX_VALUE : (1L << index) - 1;
+    }
+
+    @NonNull
+    @Override
+    public String toString() {
+        return "count=" + count + ", min=" + getMin() + ", p50=" + getPercentile(50)
+                + ", p99=" + getPercentile(99) + ", max=" + max;
+    }
+
+}
@@ -0,0 +1,274 @@
+package com.github.inbalboa.calcdialog;
+
+import android.content.Context;
+
+import androidx.annotation.NonNull;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * History of the values entered in calculator dialogs, with the expressions they were computed
+ * from, see {@link CalcSettings#setHistoryName(String)}. Entries are appended to a log file
+ * in the app's files directory, and the end offset of each entry is appended to an index file,
+ * so that any entry can be read in constant time. Both files are memory-mapped for reading,
+ * which only loads the pages read: opening a history and reading a page of entries takes
+ * the same time whatever the number of entries.
+ * <p>
+ * A history is opened once per process and shared. Its methods access files, so they
+ * shouldn't be called on the main thread.
+ */
+@SuppressWarnings("unused")
+public final class CalcHistory {
+
+    private static final String DIRECTORY = "calc_history";
+
+    private static final Map<File, CalcHistory> histories = new HashMap<>();
+
+    private final FileChannel log;
+    private final FileChannel index;
+
+    /** Number of entries. */
+    private int size;
+
+    /** End offset of the last entry in the log. */
+    private long logEnd;
+
+    // Memory-mapped log and index, for the entries there were when they were mapped.
+    // They're mapped again when more entries must be read.
+    @NonNull
+    private MappedByteBuffer logMap;
+    @NonNull
+    private MappedByteBuffer indexMap;
+
+    private CalcHistory(@NonNull File logFile, @NonNull File indexFile) throws IOException {
+        log = new RandomAccessFile(logFile, "rw").getChannel();
+        try {
+            index = new RandomAccessFile(indexFile, "rw").getChannel();
+        } catch (IOException e) {
+            log.close();
+            throw e;
+        }
+
+        // Drop the entries that weren't entirely written, if the app was killed while adding one.
+        size = (int) Math.min(Integer.MAX_VALUE, index.size() / Long.BYTES);
+        long logSize = log.size();
+        ByteBuffer buf = ByteBuffer.allocate(Long.BYTES);
+        while (size > 0) {
+            buf.clear();
+            index.read(buf, (long) (size - 1) * Long.BYTES);
+            logEnd = buf.getLong(0);
+            if (logEnd <= logSize) break;
+            size--;
+        }
+        if (size == 0) {
+            logEnd = 0;
+        }
+        index.truncate((long) size * Long.BYTES);
+        log.truncate(logEnd);
+
+        logMap = log.map(FileChannel.MapMode.READ_ONLY, 0, logEnd);
+        indexMap = index.map(FileChannel.MapMode.READ_ONLY, 0, (long) size * Long.BYTES);
+    }
+
+    /**
+     * Open a history, creating it if it doesn't exist.
+     * @param context Any context of the app.
+     * @param name    The history name, as set with {@link CalcSettings#setHistoryName(String)}.
+     * @return The history, shared with the calculator dialogs using it.
+     * @throws IOException if the history files couldn't be opened.
+     */
+    @NonNull
+    public static CalcHistory open(@NonNull Context context, @NonNull String name) throws IOException {
+        return open(new File(context.getFilesDir(), DIRECTORY), name);
+    }
+
+    @NonNull
+    static CalcHistory open(@NonNull File dir, @NonNull String name) throws IOException {
+        if (name.isEmpty() || name.indexOf(File.separatorChar) != -1) {
+            throw new IllegalArgumentException("Invalid history name.");
+        }
+        File logFile = new File(dir, name + ".log").getCanonicalFile();
+        synchronized (histories) {
+            CalcHistory history = histories.get(logFile);
+            if (history == null) {
+                if (!dir.isDirectory() && !dir.mkdirs()) {
+                    throw new IOException("Couldn't create history directory.");
+                }
+                history = new CalcHistory(logFile, new File(dir, name + ".idx"));
+                histories.put(logFile, history);
+            }
+            return history;
+        }
+    }
+
+    /**
+     * @return The number of entries.
+     */
+    public synchronized int getSize() {
+        return size;
+    }
+
+    /**
+     * @param position The position of the entry, from 0 for the oldest.
+     * @return The entry.
+     * @throws IOException if the entry couldn't be read.
+     */
+    @NonNull
+    public synchronized Entry get(int position) throws IOException {
+        if (position < 0 || position >= size) {
+            throw new IndexOutOfBoundsException("Invalid history position.");
+        }
+        remapIfNeeded();
+        return readEntry(position);
+    }
+
+    /**
+     * Get a page of entries, for example to show them in a list as it's scrolled.
+     * @param start The position of the first entry, from 0 for the oldest.
+     * @param count The maximum number of entries.
+     * @return The entries from the oldest to the newest, fewer than the count at the end.
+     * @throws IOException if the entries couldn't be read.
+     */
+    @NonNull
+    public synchronized List<Entry> getPage(int start, int count) throws IOException {
+        if (start < 0 || count < 0) {
+            throw new IndexOutOfBoundsException("Invalid history page.");
+        }
+        int end = (int) Math.min(size, (long) start + count);
+        List<Entry> entries = new ArrayList<>(Math.max(0, end - start));
+        remapIfNeeded();
+        for (int i = start; i < end; i++) {
+            entries.add(readEntry(i));
+        }
+        return entries;
+    }
+
+    /**
+     * Append an entry.
+     * @param expression The expression, as shown.
+     * @param value      The value entered.
+     * @param time       The time the value was entered, in milliseconds since epoch.
+     * @throws IOException if the entry couldn't be written.
+     */
+    synchronized void add(@NonNull String expression, @NonNull BigDecimal value, long time)
+            throws IOException {
+        StateCodec.Writer writer = new StateCodec.Writer();
+        writer.writeLong(time);
+        writer.writeDecimal(value);
+        writer.writeString(expression);
+        byte[] bytes = writer.toByteArray();
+        if (logEnd + bytes.length > Integer.MAX_VALUE || size == Integer.MAX_VALUE / Long.BYTES) {
+            // Larger files can't be mapped at once.
+            throw new IOException("History is full.");
+        }
+
+        // Write the entry before its offset, so that an entry is never indexed if it's incomplete.
+        ByteBuffer buf = ByteBuffer.wrap(bytes);
+        while (buf.hasRemaining()) {
+            log.write(buf, logEnd + buf.position());
+        }
+        buf = ByteBuffer.allocate(Long.BYTES).putLong(0, logEnd + bytes.length);
+        while (buf.hasRemaining()) {
+            index.write(buf, (long) size * Long.BYTES + buf.position());
+        }
+        logEnd += bytes.length;
+        size++;
+    }
+
+    /**
+     * Remove all entries.
+     * @throws IOException if the history files couldn't be truncated.
+     */
+    public synchronized void clear() throws IOException {
+        index.truncate(0);
+        log.truncate(0);
+        size = 0;
+        logEnd = 0;
+    }
+
+    private void remapIfNeeded() throws IOException {
+        if (logMap.capacity() != logEnd || indexMap.capacity() != (long) size * Long.BYTES) {
+            logMap = log.map(FileChannel.MapMode.READ_ONLY, 0, logEnd);
+            indexMap = index.map(FileChannel.MapMode.READ_ONLY, 0, (long) size * Long.BYTES);
+        }
+    }
+
+    @NonNull
+    private Entry readEntry(int position) throws IOException {
+        int start = (position == 0) ? 0 : (int) indexMap.getLong((position - 1) * Long.BYTES);
+        int end = (int) indexMap.getLong(position * Long.BYTES);
+        if (start < 0 || end < start || end > logMap.capacity()) {
+            throw new IOException("Invalid history index.");
+        }
+        byte[] bytes = new byte[end - start];
+        ByteBuffer buf = logMap.duplicate();
+        buf.position(start);
+        buf.get(bytes);
+        try {
+            StateCodec.Reader reader = new StateCodec.Reader(bytes);
+            long time = reader.readLong();
+            BigDecimal value = reader.readDecimal();
+            return new Entry(time, value, reader.readString());
+        } catch (IllegalArgumentException e) {
+            throw new IOException("Invalid history entry.", e);
+        }
+    }
+
+    /**
+     * A value entered in a calculator dialog.
+     */
+    public static final class Entry {
+        private final long time;
+        @NonNull
+        private final BigDecimal value;
+        @NonNull
+        private final String expression;
+
+        Entry(long time, @NonNull BigDecimal value, @NonNull String expression) {
+            this.time = time;
+            this.value = value;
+            this.expression = expression;
+        }
+
+        /**
+         * @return The time the value was entered, in milliseconds since epoch.
+         */
+        public long getTime() {
+            return time;
+        }
+
+        /**
+         * @return The value entered.
+         */
+        @NonNull
+        public BigDecimal getValue() {
+            return value;
+        }
+
+        /**
+         * @return The expression the value was computed from, formatted as it was shown.
+         * This is only the value if no expression was entered.
+         */
+        @NonNull
+        public String getExpression() {
+            return expression;
+        }
+
+        @NonNull
+        @Override
+        public String toString() {
+            return expression + " = " + value;
+        }
+    }
+
+}
@@ -0,0 +1,42 @@
+package com.github.inbalboa.calcdialog;
+
+/**
+ * An action of the calculator dialog that can be triggered by a hardware key,
+ * see {@link CalcSettings#setKeyAction(int, CalcKeyAction)}.
+ */
+public enum CalcKeyAction {
+    DIGIT_0,
+    DIGIT_1,
+    DIGIT_2,
+    DIGIT_3,
+    DIGIT_4,
+    DIGIT_5,
+    DIGIT_6,
+    DIGIT_7,
+    DIGIT_8,
+    DIGIT_9,
+    ADD,
+    SUBTRACT,
+    MULTIPLY,
+    DIVIDE,
+    SIGN,
+    DECIMAL_SEP,
+    EQUAL,
+    ANSWER,
+
+    /** Erase the last digit, repeated while the key is held down. */
+    ERASE,
+
+    CLEAR,
+    OK,
+    CANCEL,
+
+    /** Paste an expression from the clipboard, replacing the current one. */
+    PASTE,
+
+    /** Restore the state before the last input. */
+    UNDO,
+
+    /** Restore the state before the last undo. */
+    REDO,
+}
@@ -0,0 +1,118 @@
+package com.github.inbalboa.calcdialog;
+
+import androidx.annotation.NonNull;
+
+/**
+ * Performance metrics of a calculator dialog, aggregated in histograms and reported to
+ * a {@link CalcDialog.CalcMetricsListener} when the dialog is dismissed or destroyed.
+ * Durations are in nanoseconds. Metrics are only collected if there's a listener.
+ */
+@SuppressWarnings("unused")
+public final class CalcMetrics {
+
+    private final CalcHistogram openLatency = new CalcHistogram();
+    private final CalcHistogram eventLatency = new CalcHistogram();
+    private final CalcHistogram evaluateLatency = new CalcHistogram();
+    private final CalcHistogram evaluateTerms = new CalcHistogram();
+    private final CalcHistogram formatLatency = new CalcHistogram();
+    private final CalcHistogram formatTerms = new CalcHistogram();
+    private final CalcHistogram savedStateSize = new CalcHistogram();
+
+    CalcMetrics() {}
+
+    void recordOpen(long nanos) {
+        openLatency.record(nanos);
+    }
+
+    void recordEvent(long nanos) {
+        eventLatency.record(nanos);
+    }
+
+    void recordEvaluate(long nanos, int terms) {
+        evaluateLatency.record(nanos);
+        evaluateTerms.record(terms);
+    }
+
+    void recordFormat(long nanos, int terms) {
+        formatLatency.record(nanos);
+        formatTerms.record(terms);
+    }
+
+    void recordSavedState(int bytes) {
+        savedStateSize.record(bytes);
+    }
+
+    boolean isEmpty() {
+        return openLatency.getCount() == 0 && eventLatency.getCount() == 0
+                && evaluateLatency.getCount() == 0 && formatLatency.getCount() == 0
+                && savedStateSize.getCount() == 0;
+    }
+
+    /**
+     * @return Time from the dialog creation to its first frame, for each time it was shown.
+     */
+    @NonNull
+    public CalcHistogram getOpenLatency() {
+        return openLatency;
+    }
+
+    /**
+     * @return Time to handle each button click, key press and erase event.
+     * This doesn't include updating the display, which is done once per frame.
+     */
+    @NonNull
+    public CalcHistogram getEventLatency() {
+        return eventLatency;
+    }
+
+    /**
+     * @return Time to evaluate the expression, each time it's evaluated.
+     */
+    @NonNull
+    public CalcHistogram getEvaluateLatency() {
+        return evaluateLatency;
+    }
+
+    /**
+     * @return Number of terms in the expression, each time it's evaluated.
+     */
+    @NonNull
+    public CalcHistogram getEvaluateTerms() {
+        return evaluateTerms;
+    }
+
+    /**
+     * @return Time to format the expression, each time it's shown.
+     */
+    @NonNull
+    public CalcHistogram getFormatLatency() {
+        return formatLatency;
+    }
+
+    /**
+     * @return Number of terms in the expression, each time it's formatted.
+     */
+    @NonNull
+    public CalcHistogram getFormatTerms() {
+        return formatTerms;
+    }
+
+    /**
+     * @return Size in bytes of the calculator state, each time it's saved.
+     */
+    @NonNull
+    public CalcHistogram getSavedStateSize() {
+        return savedStateSize;
+    }
+
+    @NonNull
+    @Override
+    public String toString() {
+        return "CalcMetrics{open: " + openLatency
+                + "; event: " + eventLatency
+                + "; evaluate: " + evaluateLatency + ", terms: " + evaluateTerms
+                + "; format: " + formatLatency + ", terms: " + formatTerms
+                + "; saved state: " + savedStateSize + "}";
+    }
+
+}
@@ -6,9 +6,18 @@ import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 
 import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.math.MathContext;
 import java.math.RoundingMode;
 import java.text.DecimalFormat;
+import java.text.DecimalFormatSymbols;
 import java.text.NumberFormat;
+import java.text.ParsePosition;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
 
 class CalcPresenter {
     private static final int ERROR_NONE = -1;
@@ -17,10 +26,56 @@ class CalcPresenter {
     private static final int ERROR_WRONG_SIGN_POS = 2;
     private static final int ERROR_WRONG_SIGN_NEG = 3;
 
-    private CalcDialog view;
+    // Flags of the encoded state.
+    private static final int STATE_CURRENT_VALUE = 1;
+    private static final int STATE_RESULT_VALUE = 1 << 1;
+    private static final int STATE_CURRENT_IS_ANSWER = 1 << 2;
+    private static final int STATE_CURRENT_IS_RESULT = 1 << 3;
+    private static final int STATE_CAN_EDIT_CURRENT_VALUE = 1 << 4;
+    private static final int STATE_CAN_EDIT_EXPRESSION = 1 << 5;
+    private static final int STATE_EVALUATING = 1 << 6;
+    private static final int STATE_ANSWER_BTN_VISIBLE = 1 << 7;
+    private static final int STATE_ERROR_SHOWN = 1 << 8;
+
+    /**
+     * Maximum number of numbers evaluated on the main thread. If more numbers weren't evaluated
+     * yet, the expression is evaluated in the background, since a thread switch costs more than
+     * evaluating a few hundred numbers.
+     */
+    private static final int MAX_MAIN_THREAD_EVALUATION = 256;
+
+    /** Maximum number of states kept in {@link #statesInMemory}. */
+    private static final int MAX_STATES_IN_MEMORY = 4;
+
+    /**
+     * States too large for the saved state budget, kept in memory by key, see
+     * {@link #writeStateToBundle(Bundle)}. They're lost if the process is killed.
+     * Only accessed on the main thread.
+     */
+    private static final LinkedHashMap<Long, byte[]> statesInMemory = new LinkedHashMap<Long, byte[]>() {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Long, byte[]> eldest) {
+            return size() > MAX_STATES_IN_MEMORY;
+        }
+    };
+
+    private static long nextStateKey;
+
+    private CalcView view;
     private CalcSettings settings;
     private NumberFormat nbFormat;
 
+    /**
+     * Number formats used to show {@link #currentValue} with trailing zeroes while it's typed,
+     * indexed by the number of fraction digits shown. Formats are cloned from {@link #nbFormat}
+     * when first needed so that a format is never modified after being created.
+     */
+    private NumberFormat[] fractionFormats = new NumberFormat[0];
+
+    /** Number format showing a decimal separator after the value, null if not created yet. */
+    @Nullable
+    private NumberFormat decimalSepFormat;
+
     /** The typed expression. */
     @NonNull
     private Expression expression = new Expression();
@@ -43,9 +98,29 @@ class CalcPresenter {
      */
     private int currentValueScale;
 
+    /**
+     * The unscaled value of {@link #currentValue} at the scale shown, so that digits can be
+     * typed and erased without converting the value to a string. Only valid if the current value
+     * is {@link #entryValue} and its scale is {@link #entryScale}, see {@link #loadEntry()}.
+     */
+    private long entryUnscaled;
+
+    /** The unscaled value if it doesn't fit in {@link #entryUnscaled}, null otherwise. */
+    @Nullable
+    private BigInteger entryBig;
+
+    /** The value for which the entry buffer was last loaded or created. */
+    @Nullable
+    private BigDecimal entryValue;
+
+    private int entryScale;
+
     /** If there's an error, the error code. */
     private int errorCode;
 
+    /** Whether the error is shown, since the current value can be shown again before it's dismissed. */
+    private boolean errorShown;
+
     /** Whether {@link #currentValue} is from the answer button. */
     private boolean currentIsAnswer;
 
@@ -65,26 +140,70 @@ class CalcPresenter {
      */
     private boolean canEditExpression;
 
+    /** Whether the answer button is shown, so that it can't be triggered by a key when hidden. */
+    private boolean answerBtnVisible;
+
+    /** Display changes not yet applied to the view. */
+    private final CalcRenderState renderState = new CalcRenderState();
+
+    /** Whether the view was asked to render and hasn't done it yet. */
+    private boolean renderRequested;
+
+    /** Metrics to record, null if they're not collected. */
+    @Nullable
+    private CalcMetrics metrics;
+
+    /** Evaluation of the expression running in the background, null if there's none. */
+    @Nullable
+    private Evaluation evaluation;
+
+    /**
+     * The last evaluation cancelled, if it may still be running in the background. Its running
+     * state is taken back when it's done, or given to the next evaluation if it starts before.
+     */
+    @Nullable
+    private Evaluation cancelledEvaluation;
+
+    /**
+     * Inputs received while the result of the equal button is evaluated in the background
+     * and that use it, or that came after such an input. They're handled once it's done,
+     * instead of waiting for it on the main thread, see {@link #isInputDeferred(boolean)}.
+     */
+    private final ArrayDeque<Runnable> pendingInputs = new ArrayDeque<>();
+
+    /** Whether {@link #pendingInputs} are being handled, so that they aren't deferred again. */
+    private boolean replayingInputs;
+
+    /** States before each input, to undo and redo inputs. */
+    private final UndoHistory history = new UndoHistory();
 
-    void attach(CalcDialog v, Bundle state) {
+    /** The terms of {@link #expression}, shared with the saved states, see {@link #syncTerms()}. */
+    @Nullable
+    private UndoHistory.Term terms;
+
+
+    void attach(CalcView v, Bundle state) {
         view = v;
+        renderState.forgetShown();
+        renderRequested = false;
 
         settings = view.getSettings();
         settings.validate();
 
         nbFormat = settings.nbFormat;
+        fractionFormats = new NumberFormat[0];
+        decimalSepFormat = null;
 
-        if (state == null) {
+        if (state == null || !readStateFromBundle(state)) {
+            // No state, or a state kept in memory lost with the process.
             reset();
+            history.clear();
             currentValue = settings.initialValue;
-
-        } else {
-            readStateFromBundle(state);
         }
 
         view.setExpressionVisible(settings.isExpressionShown);
         view.setDecimalSepBtnEnabled(nbFormat.getMaximumFractionDigits() > 0);
-        view.setAnswerBtnVisible(settings.isAnswerBtnShown && resultValue != null);
+        setAnswerBtnVisible(settings.isAnswerBtnShown && resultValue != null);
         view.setSignBtnVisible(settings.isSignBtnShown);
         view.setCancelBtnVisible(settings.isCancelBtnShown);
 
@@ -93,84 +212,262 @@ class CalcPresenter {
     }
 
     void detach() {
+        cancelEvaluation();
+        pendingInputs.clear();
         view = null;
         settings = null;
     }
 
+    void setMetrics(@Nullable CalcMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    /**
+     * Save the state in a bundle. If it's larger than the saved state budget even when reduced
+     * with {@link #encodeStateWithinBudget(byte[], int)}, for example while the expression is
+     * evaluated, it's kept in memory instead and only its key is saved.
+     */
     void writeStateToBundle(Bundle bundle) {
-        bundle.putParcelable("expression", expression);
-        if (currentValue != null) {
-            bundle.putSerializable("currentValue", currentValue);
+        byte[] state = encodeState();
+        int budget = (settings != null) ? settings.savedStateBudget : 0;
+        if (budget > 0 && state.length > budget) {
+            byte[] reduced = encodeStateWithinBudget(state, budget);
+            if (reduced.length > budget) {
+                long key = nextStateKey++;
+                statesInMemory.put(key, state);
+                bundle.putLong("stateKey", key);
+                state = null;
+            } else {
+                state = reduced;
+            }
         }
-        if (resultValue != null) {
-            bundle.putSerializable("resultValue", resultValue);
+        if (state != null) {
+            bundle.putByteArray("state", state);
+        }
+        if (metrics != null) {
+            metrics.recordSavedState(state != null ? state.length : Long.BYTES);
+        }
+    }
+
+    /**
+     * @return Whether the state was restored.
+     */
+    private boolean readStateFromBundle(Bundle bundle) {
+        byte[] state = bundle.getByteArray("state");
+        if (state == null && bundle.containsKey("stateKey")) {
+            state = statesInMemory.remove(bundle.getLong("stateKey"));
+        }
+        if (state == null) {
+            return false;
+        }
+        if (decodeState(state)) {
+            // The state was saved during evaluation, evaluate again.
+            restartEvaluation();
+        }
+        return true;
+    }
+
+    /**
+     * Encode the presenter state and the expression in a single byte array,
+     * with the compact encoding of {@link StateCodec}.
+     */
+    @NonNull
+    byte[] encodeState() {
+        return encodeState(expression, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Encode the state again with less undo history, then with the start of the expression
+     * collapsed into its value, as little as possible for the encoded state to fit in a budget.
+     * Only the numbers already evaluated are collapsed, so that nothing is evaluated, and none
+     * are while the expression is evaluated in the background. The expression itself isn't
+     * changed. If it can't be collapsed enough, the smallest state is returned.
+     * @param state  The state encoded with the full expression.
+     * @param budget The maximum size of the encoded state.
+     */
+    @NonNull
+    byte[] encodeStateWithinBudget(@NonNull byte[] state, int budget) {
+        // Drop the oldest undo and redo states first.
+        int historySize = history.getSize();
+        while (state.length > budget && historySize > 0) {
+            historySize /= 2;
+            state = encodeState(expression, historySize);
+        }
+
+        boolean priority = settings.isOrderOfOperationsApplied;
+        int scale = settings.nbFormat.getMaximumFractionDigits();
+        RoundingMode roundingMode = nbFormat.getRoundingMode();
+        int evaluated = expression.getNumberCount() - expression.getUnevaluatedCount(
+                priority, scale, roundingMode, settings.mathContext, settings.isRationalEvaluation);
+        Expression saved = expression;
+        int collapsed = 1;
+        while (state.length > budget) {
+            // Estimate how many more numbers to collapse in proportion to the excess size.
+            int numbers = saved.getNumberCount();
+            int min = collapsed + 1 + (int) ((long) (state.length - budget) * numbers / state.length);
+            int count = expression.getCollapsibleCount(min, evaluated, priority);
+            if (count <= collapsed) break;
+            try {
+                saved = expression.collapse(count, priority, scale, roundingMode,
+                        settings.mathContext, settings.isRationalEvaluation);
+            } catch (ArithmeticException e) {
+                // Division by zero, keep the last state.
+                break;
+            }
+            collapsed = count;
+            state = encodeState(saved, 0);
         }
-        bundle.putInt("currentValueScale", currentValueScale);
-        bundle.putInt("errorCode", errorCode);
-        bundle.putBoolean("currentIsAnswer", currentIsAnswer);
-        bundle.putBoolean("currentIsResult", currentIsResult);
-        bundle.putBoolean("canEditCurrentValue", canEditCurrentValue);
-        bundle.putBoolean("canEditExpression", canEditExpression);
+        return state;
     }
 
-    private void readStateFromBundle(Bundle bundle) {
-        Expression expr = bundle.getParcelable("expression");
-        if (expr != null) {
-            this.expression = expr;
+    /**
+     * @param expr        The expression to encode, which is the presenter's expression
+     *                    or a collapsed copy of it.
+     * @param historySize Maximum number of undo and redo states encoded, only if the expression
+     *                    isn't a copy. The most recent ones are kept.
+     */
+    @NonNull
+    private byte[] encodeState(@NonNull Expression expr, int historySize) {
+        int flags = getStateFlags();
+        if (currentValue != null) flags |= STATE_CURRENT_VALUE;
+        if (resultValue != null) flags |= STATE_RESULT_VALUE;
+
+        StateCodec.Writer writer = new StateCodec.Writer();
+        writer.writeByte(flags);
+        writer.writeInt(currentValueScale);
+        writer.writeInt(errorCode);
+        if (currentValue != null) {
+            writer.writeDecimal(currentValue);
+        }
+        if (resultValue != null) {
+            writer.writeDecimal(resultValue);
         }
-        if (bundle.containsKey("currentValue")) {
-            currentValue = (BigDecimal) bundle.getSerializable("currentValue");
+        expr.encode(writer);
+        if (expr == expression && historySize > 0) {
+            history.encode(writer, syncTerms(), historySize);
         }
-        if (bundle.containsKey("resultValue")) {
-            resultValue = (BigDecimal) bundle.getSerializable("resultValue");
+        return writer.toByteArray();
+    }
+
+    /**
+     * @return The flags of the state, except for the presence of values.
+     */
+    private int getStateFlags() {
+        int flags = 0;
+        if (currentIsAnswer) flags |= STATE_CURRENT_IS_ANSWER;
+        if (currentIsResult) flags |= STATE_CURRENT_IS_RESULT;
+        if (canEditCurrentValue) flags |= STATE_CAN_EDIT_CURRENT_VALUE;
+        if (canEditExpression) flags |= STATE_CAN_EDIT_EXPRESSION;
+        if (evaluation != null) flags |= STATE_EVALUATING;
+        if (answerBtnVisible) flags |= STATE_ANSWER_BTN_VISIBLE;
+        return flags;
+    }
+
+    private void setStateFlags(int flags) {
+        currentIsAnswer = (flags & STATE_CURRENT_IS_ANSWER) != 0;
+        currentIsResult = (flags & STATE_CURRENT_IS_RESULT) != 0;
+        canEditCurrentValue = (flags & STATE_CAN_EDIT_CURRENT_VALUE) != 0;
+        canEditExpression = (flags & STATE_CAN_EDIT_EXPRESSION) != 0;
+    }
+
+    /**
+     * Restore the state encoded by {@link #encodeState()}.
+     * @return Whether the expression was being evaluated when the state was encoded,
+     * in which case it must be evaluated again.
+     * @throws IllegalArgumentException if the encoded state is invalid.
+     */
+    boolean decodeState(@NonNull byte[] state) {
+        StateCodec.Reader reader = new StateCodec.Reader(state);
+        int flags = reader.readByte();
+        currentValueScale = reader.readInt();
+        errorCode = reader.readInt();
+        currentValue = (flags & STATE_CURRENT_VALUE) != 0 ? reader.readDecimal() : null;
+        resultValue = (flags & STATE_RESULT_VALUE) != 0 ? reader.readDecimal() : null;
+        setStateFlags(flags);
+        expression = Expression.decode(reader);
+        terms = null;
+        if (reader.hasRemaining()) {
+            history.decode(reader, syncTerms());
+        } else {
+            history.clear();
         }
-        currentValueScale = bundle.getInt("currentValueScale");
-        errorCode = bundle.getInt("errorCode");
-        currentIsAnswer = bundle.getBoolean("currentIsAnswer");
-        currentIsResult = bundle.getBoolean("currentIsResult");
-        canEditCurrentValue = bundle.getBoolean("canEditCurrentValue");
-        canEditExpression = bundle.getBoolean("canEditExpression");
+        return (flags & STATE_EVALUATING) != 0;
     }
 
     void onErasedOnce() {
+        onErased(1);
+    }
+
+    /**
+     * Erase a number of times, as if erasing once repeatedly,
+     * but updating the display only once at the end.
+     */
+    void onErased(int times) {
+        if (isInputDeferred(false)) {
+            int count = times;
+            pendingInputs.add(() -> onErased(count));
+            return;
+        }
+        UndoHistory.State state = beforeInput();
+        erase(times);
+        afterInput(state);
+    }
+
+    private void erase(int times) {
         clearExpressionIfNeeded();
-        if (dismissError()) return;
+        if (dismissError() && --times == 0) return;
 
         currentIsAnswer = false;
         currentIsResult = false;
-        view.setAnswerBtnVisible(false);
+        setAnswerBtnVisible(false);
 
-        if (!canEditCurrentValue) {
-            currentValue = null;
-            canEditCurrentValue = true;
-
-        } else if (currentValue != null) {
-            String valueStr = getCurrentValueString();
-            valueStr = valueStr.substring(0, valueStr.length() - 1);
-            try {
-                currentValue = new BigDecimal(valueStr);
-                if (currentValueScale >= 0) {
-                    currentValueScale--;
-                }
-            } catch (NumberFormatException e) {
-                // Happens if string is empty or "-".
+        boolean expressionChanged = false;
+        for (int i = 0; i < times; i++) {
+            if (!canEditCurrentValue) {
                 currentValue = null;
-                currentValueScale = -1;
-            }
+                canEditCurrentValue = true;
+
+            } else if (currentValue != null) {
+                loadEntry();
+                if (currentValueScale == 0) {
+                    // Only the decimal separator is erased.
+                    currentValueScale = -1;
+                } else if (currentValueScale < 0 && getEntryIntLength() <= (isEntryNegative() ? 2 : 1)) {
+                    // Last digit erased.
+                    currentValue = null;
+                    currentValueScale = -1;
+                } else {
+                    if (currentValueScale > 0) {
+                        currentValueScale--;
+                    }
+                    int scale = Math.max(0, currentValueScale);
+                    if (entryBig != null) {
+                        setEntry(0, entryBig.divide(BigInteger.TEN), scale);
+                    } else {
+                        setEntry(entryUnscaled / 10, null, scale);
+                    }
+                }
 
-        } else if (settings.isExpressionEditable && expression.isNonEmpty()) {
-            // No more digits to erase: pop last expression number and operator and make it current value
-            currentValue = expression.numbers.remove(expression.numbers.size() - 1);
-            expression.operators.remove(expression.operators.size() - 1);
+            } else if (settings.isExpressionEditable && expression.isNonEmpty()) {
+                // No more digits to erase: pop last expression number and operator and make it current value
+                expression.removeLastOperator();
+                currentValue = expression.removeLastNumber();
 
-            assert currentValue != null;
-            currentValueScale = currentValue.scale();
-            if (currentValueScale == 0) currentValueScale = -1;
+                currentValueScale = currentValue.scale();
+                if (currentValueScale == 0) currentValueScale = -1;
 
-            updateExpression();
+                expressionChanged = true;
+
+            } else {
+                // Nothing left to erase.
+                break;
+            }
         }
 
         updateCurrentValue();
+        if (expressionChanged) {
+            updateExpression();
+        }
     }
 
     void onErasedAll() {
@@ -178,59 +475,94 @@ class CalcPresenter {
     }
 
     void onDigitBtnClicked(int digit) {
+        if (isInputDeferred(false)) {
+            pendingInputs.add(() -> onDigitBtnClicked(digit));
+            return;
+        }
+        UndoHistory.State state = beforeInput();
+        addDigit(digit);
+        afterInput(state);
+    }
+
+    private void addDigit(int digit) {
         clearExpressionIfNeeded();
         dismissOldValue();
 
-        String valueStr = getCurrentValueString();
+        loadEntry();
 
         // Check if max digits has been exceeded
-        int pointPos = valueStr.indexOf('.');
-        boolean maxIntReached = (pointPos == -1 && valueStr.length() >= settings.maxIntDigits);
-        boolean maxFracReached = (pointPos != -1 && valueStr.length() - pointPos - 1 >= nbFormat.getMaximumFractionDigits());
+        boolean maxIntReached = (currentValueScale < 0 && getEntryIntLength() >= settings.maxIntDigits);
+        boolean maxFracReached = (currentValueScale >= 0 && currentValueScale >= nbFormat.getMaximumFractionDigits());
         if (maxIntReached || maxFracReached) {
             // Can't add a new digit, it's already at the maximum.
             return;
         }
 
-        if (pointPos != -1) {
+        if (currentValueScale >= 0) {
             currentValueScale++;
         }
 
-        currentValue = new BigDecimal(valueStr + digit);
+        int scale = Math.max(0, currentValueScale);
+        boolean negative = isEntryNegative();
+        if (entryBig == null) {
+            try {
+                long u = Math.multiplyExact(entryUnscaled, 10);
+                setEntry(negative ? Math.subtractExact(u, digit) : Math.addExact(u, digit), null, scale);
+                updateCurrentValue();
+                return;
+            } catch (ArithmeticException e) {
+                // Too many digits for a long, continue with a BigInteger.
+                entryBig = BigInteger.valueOf(entryUnscaled);
+            }
+        }
+        BigInteger u = entryBig.multiply(BigInteger.TEN);
+        BigInteger d = BigInteger.valueOf(digit);
+        setEntry(0, negative ? u.subtract(d) : u.add(d), scale);
         updateCurrentValue();
     }
 
     void onOperatorBtnClicked(@NonNull Expression.Operator operator) {
+        if (isInputDeferred(true)) {
+            pendingInputs.add(() -> onOperatorBtnClicked(operator));
+            return;
+        }
+        UndoHistory.State state = beforeInput();
+        addOperator(operator);
+        afterInput(state);
+    }
+
+    private void addOperator(@NonNull Expression.Operator operator) {
         clearExpressionIfNeeded();
         if (dismissError()) return;
 
         currentIsResult = false;
         currentValueScale = -1;
 
-        if (!currentIsAnswer && !canEditCurrentValue && !expression.operators.isEmpty()) {
+        if (!currentIsAnswer && !canEditCurrentValue && expression.getOperatorCount() > 0) {
             // Undo previous operator button click if the current value is the
             // result of the expression calculated on the last button click.
-            expression.operators.set(expression.operators.size() - 1, operator);
+            expression.setLastOperator(operator);
 
         } else {
             if (currentValue == null) {
                 currentValue = BigDecimal.ZERO;
             }
-            expression.numbers.add(currentValue);
+            expression.addNumber(currentValue);
             calculate();
-            expression.operators.add(operator);
-
-            if (!settings.shouldEvaluateOnOperation) {
-                currentValue = null;
-            }
+            expression.addOperator(operator);
         }
 
-        view.setAnswerBtnVisible(settings.isAnswerBtnShown && resultValue != null);
+        setAnswerBtnVisible(settings.isAnswerBtnShown && resultValue != null);
         updateCurrentValue();
         updateExpression();
     }
 
     void onDecimalSepBtnClicked() {
+        if (isInputDeferred(false)) {
+            pendingInputs.add(this::onDecimalSepBtnClicked);
+            return;
+        }
+        UndoHistory.State state = beforeInput();
         clearExpressionIfNeeded();
         dismissOldValue();
 
@@ -242,13 +574,19 @@ class CalcPresenter {
             currentValueScale = 0;
             updateCurrentValue();
         }
+        afterInput(state);
     }
 
     void onSignBtnClicked() {
+        if (isInputDeferred(true)) {
+            pendingInputs.add(this::onSignBtnClicked);
+            return;
+        }
+        UndoHistory.State state = beforeInput();
         dismissError();
 
         currentIsAnswer = false;
-        view.setAnswerBtnVisible(false);
+        setAnswerBtnVisible(false);
 
         if (!canEditCurrentValue && !currentIsResult && expression.isNonEmpty()) {
             // If current value is result, it's not editable but still allow negation.
@@ -266,15 +604,31 @@ class CalcPresenter {
         }
 
         updateCurrentValue();
+        afterInput(state);
     }
 
     void onEqualBtnClicked() {
+        if (isInputDeferred(true)) {
+            pendingInputs.add(this::onEqualBtnClicked);
+            return;
+        }
+        UndoHistory.State state = beforeInput();
         clearExpressionIfNeeded();
-        if (dismissError()) return;
-        equal();
+        if (!dismissError()) {
+            equal();
+        }
+        afterInput(state);
     }
 
     void onAnswerBtnClicked() {
+        if (isInputDeferred(true)) {
+            // The button may be hidden by the inputs handled before.
+            pendingInputs.add(() -> {
+                if (answerBtnVisible) onAnswerBtnClicked();
+            });
+            return;
+        }
+        UndoHistory.State state = beforeInput();
         assert resultValue != null;
 
         currentValue = resultValue;
@@ -282,19 +636,26 @@ class CalcPresenter {
         currentIsAnswer = true;
         canEditCurrentValue = false;
 
-        view.setAnswerBtnVisible(false);
+        setAnswerBtnVisible(false);
         updateCurrentValue();
+        afterInput(state);
     }
 
     void onClearBtnClicked() {
+        if (isInputDeferred(false)) {
+            pendingInputs.add(this::onClearBtnClicked);
+            return;
+        }
+        UndoHistory.State state = beforeInput();
         clearExpressionIfNeeded();
-        if (dismissError()) return;
-
-        reset();
+        if (!dismissError()) {
+            reset();
 
-        view.setAnswerBtnVisible(false);
-        updateCurrentValue();
-        updateExpression();
+            setAnswerBtnVisible(false);
+            updateCurrentValue();
+            updateExpression();
+        }
+        afterInput(state);
     }
 
     void onCancelBtnClicked() {
@@ -302,12 +663,31 @@ class CalcPresenter {
     }
 
     void onOkBtnClicked() {
+        if (isInputDeferred(true)) {
+            pendingInputs.add(this::onOkBtnClicked);
+            return;
+        }
+        UndoHistory.State state = beforeInput();
+        submit();
+        afterInput(state);
+    }
+
+    /**
+     * Show the result, or send it and exit if it's already shown and within the bounds.
+     */
+    private void submit() {
+        // If a result is shown, its expression is cleared below, so keep it for the history.
+        String historyExpression = null;
+        if (settings.historyName != null && currentIsResult && errorCode == ERROR_NONE) {
+            historyExpression = expression.format(nbFormat).trim();
+        }
+
         clearExpressionIfNeeded();
         if (dismissError()) return;
 
         equal();
 
-        if (expression.numbers.size() > 1) {
+        if (expression.getNumberCount() > 1) {
             // If the expression still has more than 1 number it means it was just calculated.
             // Don't dismiss already to let user see the result.
             return;
@@ -336,6 +716,12 @@ class CalcPresenter {
         if (errorCode == ERROR_NONE) {
             if (resultValue != null) {
                 view.sendValueResult(resultValue);
+                if (settings.historyName != null) {
+                    if (historyExpression == null) {
+                        historyExpression = expression.format(nbFormat).trim();
+                    }
+                    view.addHistoryEntry(historyExpression, resultValue);
+                }
             }
             view.exit();
         }
@@ -343,6 +729,169 @@ class CalcPresenter {
 
     void onDismissed() {
         reset();
+        pendingInputs.clear();
+        history.clear();
+    }
+
+    /**
+     * Restore the state before the last input, if any.
+     */
+    void onUndo() {
+        if (isInputDeferred(false)) {
+            pendingInputs.add(this::onUndo);
+            return;
+        }
+        UndoHistory.State state = history.undo(saveState());
+        if (state != null) {
+            restoreState(state);
+        }
+    }
+
+    /**
+     * Restore the state before the last undo, if there was no input since.
+     */
+    void onRedo() {
+        if (isInputDeferred(false)) {
+            pendingInputs.add(this::onRedo);
+            return;
+        }
+        UndoHistory.State state = history.redo(saveState());
+        if (state != null) {
+            restoreState(state);
+        }
+    }
+
+    /**
+     * Called when text is pasted. The text replaces the expression and the current value,
+     * and the display is updated once. Nothing is changed if the text is invalid, including
+     * if a number has more digits than could be entered with the buttons.
+     * @param text The pasted text, see {@link ExpressionParser}.
+     * @return The position of the first invalid character or digit over the maximum,
+     * or -1 if the text is valid.
+     */
+    int onPasted(@NonNull CharSequence text) {
+        DecimalFormatSymbols symbols;
+        int groupingSize;
+        if (nbFormat instanceof DecimalFormat) {
+            symbols = ((DecimalFormat) nbFormat).getDecimalFormatSymbols();
+            groupingSize = ((DecimalFormat) nbFormat).getGroupingSize();
+        } else {
+            symbols = DecimalFormatSymbols.getInstance();
+            groupingSize = 3;
+        }
+        Expression parsed = new Expression();
+        ParsePosition pos = new ParsePosition(0);
+        BigDecimal value = new ExpressionParser(symbols, groupingSize, settings.maxIntDigits,
+                nbFormat.getMaximumFractionDigits()).parse(text, parsed, pos);
+        if (pos.getErrorIndex() >= 0) {
+            return pos.getErrorIndex();
+        }
+        if (isInputDeferred(false)) {
+            pendingInputs.add(() -> onPasted(parsed, value));
+        } else {
+            onPasted(parsed, value);
+        }
+        return -1;
+    }
+
+    private void onPasted(@NonNull Expression parsed, @Nullable BigDecimal value) {
+        UndoHistory.State state = beforeInput();
+        dismissError();
+        expression = parsed;
+        currentValue = value;
+        currentValueScale = (value == null || value.scale() <= 0) ? -1 : value.scale();
+        currentIsAnswer = false;
+        currentIsResult = false;
+        // Like after an operator button click if the text ends with an operator.
+        canEditCurrentValue = (value != null);
+        canEditExpression = true;
+        setAnswerBtnVisible(false);
+
+        updateCurrentValue();
+        updateExpression();
+        afterInput(state);
+    }
+
+    /**
+     * Called when a hardware key mapped to an action is pressed. Actions of buttons that
+     * are hidden or disabled are ignored.
+     */
+    void onKeyAction(@NonNull CalcKeyAction action) {
+        switch (action) {
+            case ADD:
+                onOperatorBtnClicked(Expression.Operator.ADD);
+                break;
+            case SUBTRACT:
+                onOperatorBtnClicked(Expression.Operator.SUBTRACT);
+                break;
+            case MULTIPLY:
+                onOperatorBtnClicked(Expression.Operator.MULTIPLY);
+                break;
+            case DIVIDE:
+                onOperatorBtnClicked(Expression.Operator.DIVIDE);
+                break;
+            case SIGN:
+                if (settings.isSignBtnShown) onSignBtnClicked();
+                break;
+            case DECIMAL_SEP:
+                if (nbFormat.getMaximumFractionDigits() > 0) onDecimalSepBtnClicked();
+                break;
+            case EQUAL:
+                onEqualBtnClicked();
+                break;
+            case ANSWER:
+                if (answerBtnVisible) onAnswerBtnClicked();
+                break;
+            case ERASE:
+                onErasedOnce();
+                break;
+            case CLEAR:
+                onClearBtnClicked();
+                break;
+            case OK:
+                onOkBtnClicked();
+                break;
+            case CANCEL:
+                onCancelBtnClicked();
+                break;
+            case PASTE:
+                // Handled by the view, which has access to the clipboard.
+                break;
+            case UNDO:
+                onUndo();
+                break;
+            case REDO:
+                onRedo();
+                break;
+            default:
+                // Digit actions are declared first, in order.
+                onDigitBtnClicked(action.ordinal() - CalcKeyAction.DIGIT_0.ordinal());
+                break;
+        }
+    }
+
+    private void setAnswerBtnVisible(boolean visible) {
+        answerBtnVisible = visible;
+        renderState.setAnswerBtnVisible(visible);
+        requestRender();
+    }
+
+    /**
+     * Apply the display changes made since the last render to the view.
+     * Called by the view once per frame after {@link CalcView#requestRender()}.
+     */
+    void render() {
+        renderRequested = false;
+        if (view != null) {
+            renderState.flush(view, this);
+        }
+    }
+
+    private void requestRender() {
+        if (!renderRequested) {
+            renderRequested = true;
+            view.requestRender();
+        }
     }
 
     private void clearExpressionIfNeeded() {
@@ -359,7 +908,7 @@ class CalcPresenter {
 
         currentIsAnswer = false;
 
-        view.setAnswerBtnVisible(false);
+        setAnswerBtnVisible(false);
 
         if (!canEditCurrentValue) {
             currentValue = null;
@@ -372,6 +921,7 @@ class CalcPresenter {
      * Reset all variables to their initial value. Doesn't update the display.
      */
     private void reset() {
+        cancelEvaluation();
         expression.clear();
         currentValue = null;
         resultValue = null;
@@ -383,41 +933,247 @@ class CalcPresenter {
         canEditCurrentValue = false;
         canEditExpression = true;
 
-        view.setAnswerBtnVisible(false);
+        setAnswerBtnVisible(false);
     }
 
+    /**
+     * Evaluate the expression to set the current value, and the result value if the current
+     * value is the result of the equal button, or show an error. If many numbers weren't
+     * evaluated yet, a copy of the expression is evaluated in the background and the values
+     * are set when it's done. Until then, the current value is null and "computing" is shown.
+     */
     private void calculate() {
+        currentValueScale = -1;
+        currentIsAnswer = false;
+        canEditCurrentValue = false;
+
+        boolean priority = settings.isOrderOfOperationsApplied;
+        int scale = settings.nbFormat.getMaximumFractionDigits();
+        RoundingMode roundingMode = nbFormat.getRoundingMode();
+        if (expression.getUnevaluatedCount(priority, scale, roundingMode, settings.mathContext,
+                settings.isRationalEvaluation) > MAX_MAIN_THREAD_EVALUATION) {
+            Expression previous = (cancelledEvaluation != null ? cancelledEvaluation.expr : null);
+            cancelledEvaluation = null;
+            Evaluation eval = new Evaluation(expression.copyForEvaluation(previous), priority, scale,
+                    roundingMode, settings.mathContext, settings.isRationalEvaluation, currentIsResult);
+            evaluation = eval;
+            currentValue = null;
+            updateCurrentValue();
+            view.runInBackground(eval, () -> {
+                if (evaluation == eval) {
+                    onEvaluated(eval);
+                } else if (cancelledEvaluation == eval) {
+                    // Keep what was evaluated before it was cancelled.
+                    cancelledEvaluation = null;
+                    expression.adoptRunningState(eval.expr);
+                }
+            });
+            return;
+        }
+
+        BigDecimal value;
         try {
-            currentValue = expression.evaluate(settings.isOrderOfOperationsApplied,
-                    settings.nbFormat.getMaximumFractionDigits(), nbFormat.getRoundingMode());
+            long start = (metrics != null ? System.nanoTime() : 0);
+            value = expression.evaluate(priority, scale, roundingMode,
+                    settings.mathContext, settings.isRationalEvaluation);
+            if (metrics != null) {
+                metrics.recordEvaluate(System.nanoTime() - start, expression.getNumberCount());
+            }
         } catch (ArithmeticException e) {
             // Division by zero occurred.
+            value = null;
+        }
+        setEvaluatedValue(value);
+    }
+
+    /**
+     * Set the current value and the result value from the value of the expression.
+     * @param value The value, or null if a division by zero occurred.
+     */
+    private void setEvaluatedValue(@Nullable BigDecimal value) {
+        if (value == null) {
+            currentIsResult = false;
             setError(ERROR_DIV_ZERO);
-            return;
+        } else if (currentIsResult) {
+            currentValue = value;
+            resultValue = value;
+        } else {
+            currentValue = settings.shouldEvaluateOnOperation ? value : null;
         }
+    }
 
-        currentValueScale = -1;
-        currentIsAnswer = false;
-        canEditCurrentValue = false;
+    /**
+     * Called on the main thread when the evaluation in the background is done.
+     */
+    private void onEvaluated(@NonNull Evaluation eval) {
+        evaluation = null;
+        expression.adoptRunningState(eval.expr);
+        if (metrics != null) {
+            metrics.recordEvaluate(eval.nanos, eval.expr.getNumberCount());
+        }
+
+        setEvaluatedValue(eval.value);
+        if (!eval.isResult) {
+            // As after an operator button click.
+            setAnswerBtnVisible(settings.isAnswerBtnShown && resultValue != null);
+        }
+        if (errorCode == ERROR_NONE) {
+            updateCurrentValue();
+        }
+        updateExpression();
+        replayPendingInputs();
+    }
+
+    /**
+     * Evaluate the expression again after restoring a state saved during evaluation.
+     * If the evaluation was for an operator button click, the operator is already added.
+     */
+    private void restartEvaluation() {
+        int count = expression.getOperatorCount();
+        if (count > 0 && count == expression.getNumberCount()) {
+            Expression.Operator operator = expression.getOperator(count - 1);
+            expression.removeLastOperator();
+            calculate();
+            expression.addOperator(operator);
+        } else {
+            calculate();
+        }
+    }
+
+    /**
+     * Check whether an input must wait until the evaluation in the background is done,
+     * in which case it's added to {@link #pendingInputs}. This is the case if the input uses
+     * the result being evaluated, or if inputs before it are waiting, to keep them in order.
+     * @param needsResult Whether the input uses the current value if it's a result.
+     */
+    private boolean isInputDeferred(boolean needsResult) {
+        if (replayingInputs) return false;
+        return !pendingInputs.isEmpty() || needsResult && evaluation != null && evaluation.isResult;
+    }
+
+    /**
+     * Handle the inputs that waited for the evaluation, in order. If one of them starts
+     * evaluating a result in the background, the next ones wait for it in turn.
+     */
+    private void replayPendingInputs() {
+        replayingInputs = true;
+        while (!pendingInputs.isEmpty() && (evaluation == null || !evaluation.isResult)) {
+            pendingInputs.remove().run();
+        }
+        replayingInputs = false;
+    }
+
+    /**
+     * Called before handling an input: get the state to undo the input, and cancel
+     * the evaluation in the background, whose result isn't used by the input.
+     * @return The state before the input, for {@link #afterInput(UndoHistory.State)}.
+     */
+    @NonNull
+    private UndoHistory.State beforeInput() {
+        UndoHistory.State state = saveState();
+        cancelEvaluation();
+        return state;
+    }
+
+    /**
+     * Called after handling an input: save the state before it in the undo history, which
+     * clears the redo history. Nothing is saved if the input changed nothing, for example
+     * a digit over the maximum, so that it can still be redone.
+     */
+    private void afterInput(@NonNull UndoHistory.State before) {
+        if (!saveState().isSameAs(before)) {
+            history.push(before);
+        }
+    }
+
+    /**
+     * Get the current state, in constant time, since only the terms added to the expression
+     * since the last time are copied.
+     */
+    @NonNull
+    private UndoHistory.State saveState() {
+        int flags = getStateFlags() | (errorShown ? STATE_ERROR_SHOWN : 0);
+        return new UndoHistory.State(syncTerms(), currentValue, resultValue,
+                currentValueScale, errorCode, flags);
+    }
+
+    private void restoreState(@NonNull UndoHistory.State state) {
+        cancelEvaluation();
+        UndoHistory.Term.restore(expression, syncTerms(), state.terms);
+        expression.takeChangedFrom();
+        terms = state.terms;
+
+        currentValue = state.currentValue;
+        resultValue = state.resultValue;
+        currentValueScale = state.currentValueScale;
+        errorCode = state.errorCode;
+        setStateFlags(state.flags);
+
+        setAnswerBtnVisible((state.flags & STATE_ANSWER_BTN_VISIBLE) != 0);
+        if ((state.flags & STATE_ERROR_SHOWN) != 0) {
+            errorShown = true;
+            renderState.showError(errorCode);
+            requestRender();
+        } else {
+            updateCurrentValue();
+        }
+        updateExpression();
+
+        if ((state.flags & STATE_EVALUATING) != 0) {
+            restartEvaluation();
+        }
+    }
+
+    /**
+     * Update {@link #terms} with the changes to the expression since the last time,
+     * removing and adding only the terms after the first one changed.
+     * @return The terms of the expression.
+     */
+    @Nullable
+    private UndoHistory.Term syncTerms() {
+        int from = expression.takeChangedFrom();
+        UndoHistory.Term t = terms;
+        while (t != null && t.index >= from) {
+            t = t.previous;
+        }
+        terms = UndoHistory.Term.append(t, expression);
+        return terms;
+    }
+
+    /**
+     * Cancel the evaluation in the background, if there's one. The task still runs until it
+     * notices, so that the running state evaluated until then can be taken back.
+     */
+    private void cancelEvaluation() {
+        if (evaluation != null) {
+            evaluation.expr.cancelEvaluation();
+            cancelledEvaluation = evaluation;
+            evaluation = null;
+        }
+    }
+
+    /**
+     * @return Whether the expression is being evaluated in the background.
+     */
+    boolean isEvaluating() {
+        return evaluation != null;
     }
 
     private void equal() {
-        if (!currentIsAnswer && !canEditCurrentValue && !expression.operators.isEmpty()) {
+        if (!currentIsAnswer && !canEditCurrentValue && expression.getOperatorCount() > 0) {
             // Remove unused last operator
-            expression.operators.remove(expression.operators.size() - 1);
+            expression.removeLastOperator();
         } else {
             if (currentValue == null) {
                 currentValue = BigDecimal.ZERO;
             }
-            expression.numbers.add(currentValue);
+            expression.addNumber(currentValue);
         }
 
+        currentIsResult = true;
         calculate();
 
         if (errorCode == ERROR_NONE) {
-            resultValue = currentValue;
-            currentIsResult = true;
-            currentValueScale = -1;
             updateCurrentValue();
         }
 
@@ -436,7 +1192,9 @@ class CalcPresenter {
         canEditCurrentValue = false;
         canEditExpression = false;
 
-        view.showErrorText(error);
+        errorShown = true;
+        renderState.showError(error);
+        requestRender();
     }
 
     private boolean dismissError() {
@@ -449,69 +1207,192 @@ class CalcPresenter {
     }
 
     private void updateCurrentValue() {
-        if (currentIsAnswer) {
-            view.showAnswerText();
-            return;
-        }
+        errorShown = false;
+        renderState.invalidateValue();
+        requestRender();
+    }
+
+    /**
+     * @return Whether the answer text is shown instead of the current value.
+     */
+    boolean isAnswerShown() {
+        return currentIsAnswer;
+    }
 
+    /**
+     * @return The text of the current value, null for no value.
+     */
+    @Nullable
+    String formatCurrentValue() {
         BigDecimal value = currentValue;
         if (value == null && settings.isZeroShownWhenNoValue) {
             value = BigDecimal.ZERO;
         }
+        return value == null ? null : getCurrentValueFormat().format(value);
+    }
 
-        String text = null;
-        if (value != null) {
-            if (currentValueScale > 0 && nbFormat.getMinimumFractionDigits() < currentValueScale) {
-                // Set a minimum number of fraction digits so that trailing zeroes are shown.
-                int minFracBefore = nbFormat.getMinimumFractionDigits();
-                nbFormat.setMinimumFractionDigits(currentValueScale);
-                text = nbFormat.format(value);
-                nbFormat.setMinimumFractionDigits(minFracBefore);
-
-            } else if (currentValueScale == 0
-                    && nbFormat.getMinimumFractionDigits() == 0
-                    && nbFormat instanceof DecimalFormat fmt) {
-                // Append the decimal separator at the end of the number.
+    /**
+     * Get the number format to use to show the current value.
+     */
+    private NumberFormat getCurrentValueFormat() {
+        if (currentValueScale > 0 && nbFormat.getMinimumFractionDigits() < currentValueScale) {
+            // Use a minimum number of fraction digits so that trailing zeroes are shown.
+            if (currentValueScale >= fractionFormats.length) {
+                fractionFormats = Arrays.copyOf(fractionFormats, currentValueScale + 1);
+            }
+            NumberFormat fmt = fractionFormats[currentValueScale];
+            if (fmt == null) {
+                fmt = (NumberFormat) nbFormat.clone();
+                fmt.setMinimumFractionDigits(currentValueScale);
+                fractionFormats[currentValueScale] = fmt;
+            }
+            return fmt;
+
+        } else if (currentValueScale == 0
+                && nbFormat.getMinimumFractionDigits() == 0
+                && nbFormat instanceof DecimalFormat) {
+            // Append the decimal separator at the end of the number.
+            if (decimalSepFormat == null) {
+                DecimalFormat fmt = (DecimalFormat) nbFormat.clone();
                 char sep = fmt.getDecimalFormatSymbols().getDecimalSeparator();
-                if (value.compareTo(BigDecimal.ZERO) >= 0) {
-                    String suffixBefore = fmt.getPositiveSuffix();
-                    fmt.setPositiveSuffix(sep + suffixBefore);
-                    text = nbFormat.format(value);
-                    fmt.setPositiveSuffix(suffixBefore);
-                } else {
-                    String suffixBefore = fmt.getNegativeSuffix();
-                    fmt.setNegativeSuffix(sep + suffixBefore);
-                    text = nbFormat.format(value);
-                    fmt.setNegativeSuffix(suffixBefore);
-                }
-            } else {
-                text = nbFormat.format(value);
+                fmt.setPositiveSuffix(sep + fmt.getPositiveSuffix());
+                fmt.setNegativeSuffix(sep + fmt.getNegativeSuffix());
+                decimalSepFormat = fmt;
             }
+            return decimalSepFormat;
         }
-
-        view.updateCurrentValue(text);
+        return nbFormat;
     }
 
     private void updateExpression() {
         if (settings.isExpressionShown) {
-            String text = expression.format(nbFormat);
-            if (currentIsResult) {
-                // If current value is the result from the equal button, append = to the expression.
-                text += " =";
+            renderState.invalidateExpression();
+            requestRender();
+        }
+    }
+
+    @NonNull
+    String formatExpression() {
+        long start = (metrics != null ? System.nanoTime() : 0);
+        String text = expression.format(nbFormat);
+        if (metrics != null) {
+            metrics.recordFormat(System.nanoTime() - start, expression.getNumberCount());
+        }
+        if (currentIsResult) {
+            // If current value is the result from the equal button, append = to the expression.
+            text += " =";
+        }
+        return text;
+    }
+
+    /**
+     * Load the entry buffer from {@link #currentValue} if it wasn't created for this value,
+     * for example if the value was popped from the expression or negated.
+     */
+    private void loadEntry() {
+        int scale = Math.max(0, currentValueScale);
+        if (currentValue == entryValue && scale == entryScale) return;
+
+        entryValue = currentValue;
+        entryScale = scale;
+        entryUnscaled = 0;
+        entryBig = null;
+        if (currentValue != null) {
+            BigInteger unscaled = currentValue.setScale(scale, RoundingMode.UNNECESSARY).unscaledValue();
+            if (unscaled.bitLength() < Long.SIZE) {
+                entryUnscaled = unscaled.longValue();
+            } else {
+                entryBig = unscaled;
             }
-            view.updateExpression(text);
         }
     }
 
-    private String getCurrentValueString() {
-        if (currentValue == null) return "";
+    /**
+     * Set the entry buffer and the current value to a new unscaled value.
+     * @param unscaled The unscaled value, if big is null.
+     * @param big      The unscaled value if it doesn't fit in a long, null otherwise.
+     * @param scale    The scale of the value.
+     */
+    private void setEntry(long unscaled, @Nullable BigInteger big, int scale) {
+        if (big != null && big.bitLength() < Long.SIZE) {
+            unscaled = big.longValue();
+            big = null;
+        }
+        entryUnscaled = unscaled;
+        entryBig = big;
+        entryScale = scale;
+        currentValue = (big != null ? new BigDecimal(big, scale) : BigDecimal.valueOf(unscaled, scale));
+        entryValue = currentValue;
+    }
+
+    private boolean isEntryNegative() {
+        return entryBig != null ? entryBig.signum() < 0 : entryUnscaled < 0;
+    }
 
-        String str = currentValue.setScale(Math.max(0, currentValueScale),
-                RoundingMode.UNNECESSARY).toPlainString();
-        if (currentValueScale == 0) {
-            str += '.';
+    /**
+     * Get the number of characters of the entry when it has no fractional part,
+     * including the minus sign. Zero has one digit, and no value has none.
+     */
+    private int getEntryIntLength() {
+        if (currentValue == null) return 0;
+
+        int length = isEntryNegative() ? 1 : 0;
+        if (entryBig != null) {
+            return length + entryBig.abs().toString().length();
+        }
+        long value = entryUnscaled;
+        do {
+            value /= 10;
+            length++;
+        } while (value != 0);
+        return length;
+    }
+
+    /**
+     * Evaluation of a copy of the expression on a background thread,
+     * with the parameters read from the settings on the main thread.
+     */
+    private static final class Evaluation implements Runnable {
+        final Expression expr;
+        final boolean priority;
+        final int scale;
+        final RoundingMode roundingMode;
+        @Nullable
+        final MathContext mathContext;
+        final boolean rational;
+
+        /** Whether the value is the result of the equal button. */
+        final boolean isResult;
+
+        // Set by the background thread.
+        @Nullable
+        BigDecimal value;
+        long nanos;
+
+        Evaluation(Expression expr, boolean priority, int scale, RoundingMode roundingMode,
+                   @Nullable MathContext mathContext, boolean rational, boolean isResult) {
+            this.expr = expr;
+            this.priority = priority;
+            this.scale = scale;
+            this.roundingMode = roundingMode;
+            this.mathContext = mathContext;
+            this.rational = rational;
+            this.isResult = isResult;
+        }
+
+        @Override
+        public void run() {
+            long start = System.nanoTime();
+            expr.adoptPreviousRunningState();
+            try {
+                value = expr.evaluate(priority, scale, roundingMode, mathContext, rational);
+            } catch (ArithmeticException e) {
+                // Division by zero occurred, value stays null.
+            } catch (CancellationException e) {
+                // The value isn't used, only the running state evaluated until now.
+            }
+            nanos = System.nanoTime() - start;
         }
-        return str;
     }
 
 }
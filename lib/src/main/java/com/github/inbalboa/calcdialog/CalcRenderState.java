@@ -0,0 +1,124 @@
+package com.github.inbalboa.calcdialog;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.util.Objects;
+
+/**
+ * Display changes requested by {@link CalcPresenter}, applied to the view at once by
+ * {@link #flush(CalcView, CalcPresenter)}. The last request for each element wins, and values
+ * that are already shown by the view are not set again. Texts are only formatted when flushed.
+ */
+final class CalcRenderState {
+    // What the current value text shows.
+    private static final int VALUE_UNKNOWN = -1;
+    private static final int VALUE_NUMBER = 0;
+    private static final int VALUE_ANSWER = 1;
+    private static final int VALUE_ERROR = 2;
+    private static final int VALUE_COMPUTING = 3;
+
+    private boolean valueDirty;
+    private boolean errorRequested;
+    private int error;
+
+    private boolean expressionDirty;
+
+    private boolean answerBtnDirty;
+    private boolean answerBtnVisible;
+
+    // Values last set on the view.
+    private int shownValueKind = VALUE_UNKNOWN;
+    @Nullable
+    private String shownValue;
+    private int shownError;
+    @Nullable
+    private String shownExpression;
+    @Nullable
+    private Boolean shownAnswerBtnVisible;
+
+    /** Request the current value to be shown, as a number, the answer text or the computing text. */
+    void invalidateValue() {
+        valueDirty = true;
+        errorRequested = false;
+    }
+
+    /** Request an error text to be shown instead of the current value. */
+    void showError(int error) {
+        valueDirty = true;
+        errorRequested = true;
+        this.error = error;
+    }
+
+    void invalidateExpression() {
+        expressionDirty = true;
+    }
+
+    void setAnswerBtnVisible(boolean visible) {
+        answerBtnDirty = true;
+        answerBtnVisible = visible;
+    }
+
+    /**
+     * Forget the values shown by the view, so that the next flush sets them all,
+     * for example when the presenter is attached to a new view.
+     */
+    void forgetShown() {
+        shownValueKind = VALUE_UNKNOWN;
+        shownValue = null;
+        shownExpression = null;
+        shownAnswerBtnVisible = null;
+    }
+
+    /**
+     * Apply the requested changes to a view.
+     * @param presenter The presenter, used to format the texts.
+     */
+    void flush(@NonNull CalcView view, @NonNull CalcPresenter presenter) {
+        if (answerBtnDirty) {
+            answerBtnDirty = false;
+            if (shownAnswerBtnVisible == null || shownAnswerBtnVisible != answerBtnVisible) {
+                shownAnswerBtnVisible = answerBtnVisible;
+                view.setAnswerBtnVisible(answerBtnVisible);
+            }
+        }
+
+        if (valueDirty) {
+            valueDirty = false;
+            if (errorRequested) {
+                if (shownValueKind != VALUE_ERROR || shownError != error) {
+                    shownValueKind = VALUE_ERROR;
+                    shownError = error;
+                    view.showErrorText(error);
+                }
+            } else if (presenter.isEvaluating()) {
+                if (shownValueKind != VALUE_COMPUTING) {
+                    shownValueKind = VALUE_COMPUTING;
+                    view.showComputingText();
+                }
+            } else if (presenter.isAnswerShown()) {
+                if (shownValueKind != VALUE_ANSWER) {
+                    shownValueKind = VALUE_ANSWER;
+                    view.showAnswerText();
+                }
+            } else {
+                String text = presenter.formatCurrentValue();
+                if (shownValueKind != VALUE_NUMBER || !Objects.equals(shownValue, text)) {
+                    shownValueKind = VALUE_NUMBER;
+                    shownValue = text;
+                    view.updateCurrentValue(text);
+                }
+            }
+        }
+
+        if (expressionDirty) {
+            expressionDirty = false;
+            String text = presenter.formatExpression();
+            if (!text.equals(shownExpression)) {
+                shownExpression = text;
+                view.updateExpression(text);
+            }
+        }
+    }
+
+}
@@ -4,14 +4,17 @@ import android.os.Bundle;
 import android.os.Parcel;
 import android.os.Parcelable;
 import android.util.Log;
+import android.view.KeyEvent;
 
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 
 import java.math.BigDecimal;
+import java.math.MathContext;
 import java.math.RoundingMode;
 import java.text.DecimalFormat;
 import java.text.NumberFormat;
+import java.util.Arrays;
 import java.util.Optional;
 
 /**
@@ -21,6 +24,8 @@ import java.util.Optional;
 public class CalcSettings implements Parcelable {
     private static final String TAG = CalcSettings.class.getSimpleName();
 
+    private static final CalcKeyAction[] KEY_ACTIONS = CalcKeyAction.values();
+
     int requestCode = 0;
 
     // Appearance settings
@@ -41,6 +46,19 @@ public class CalcSettings implements Parcelable {
     @Nullable BigDecimal minValue = new BigDecimal("-1E10");
     @Nullable BigDecimal maxValue = new BigDecimal("1E10");
     boolean isOrderOfOperationsApplied = true;
+    @Nullable MathContext mathContext = null;
+    boolean isRationalEvaluation = false;
+    boolean isDialogRetained = false;
+    int savedStateBudget = 32 * 1024;
+    @Nullable String historyName = null;
+
+    /**
+     * Actions of hardware keys, indexed by key code. Each action is stored as its ordinal
+     * plus one, zero for no action. The array is copied before being changed, since the
+     * default keymap is shared.
+     */
+    @NonNull byte[] keymap = DEFAULT_KEYMAP;
+    private boolean isKeymapShared = true;
 
     CalcSettings() {
         nbFormat.setMaximumIntegerDigits(Integer.MAX_VALUE);
@@ -288,6 +306,185 @@ public class CalcSettings implements Parcelable {
         return isOrderOfOperationsApplied;
     }
 
+    /**
+     * Set a precision to which the result of every operation is rounded. Without it, only
+     * division results are rounded, to the maximum fraction digits of the number format, and
+     * a chain of multiplications keeps all the digits of every operand, getting slower as they
+     * add up. For example, {@link MathContext#DECIMAL64} keeps 16 significant digits.
+     * By default, there's no precision.
+     * @param mathContext The precision and rounding mode, or null for none.
+     * @return The settings
+     */
+    public CalcSettings setMathContext(@Nullable MathContext mathContext) {
+        if (mathContext != null && mathContext.getRoundingMode() == RoundingMode.UNNECESSARY) {
+            throw new IllegalArgumentException("Cannot use RoundingMode.UNNECESSARY as a rounding mode.");
+        }
+        this.mathContext = mathContext;
+        return this;
+    }
+
+    @Nullable
+    public MathContext getMathContext() {
+        return mathContext;
+    }
+
+    /**
+     * Set whether expressions are evaluated with exact fractions. If so, division results
+     * aren't rounded as they're computed: the result is divided and rounded to the maximum
+     * fraction digits of the number format only once at the end, so that "1 ÷ 3 × 3" gives 1.
+     * The precision set by {@link #setMathContext(MathContext)} only applies to the result.
+     * By default, expressions aren't evaluated with fractions.
+     * @param enabled Whether to evaluate with fractions or not.
+     * @return The settings
+     */
+    public CalcSettings setRationalEvaluation(boolean enabled) {
+        isRationalEvaluation = enabled;
+        return this;
+    }
+
+    public boolean isRationalEvaluation() {
+        return isRationalEvaluation;
+    }
+
+    /**
+     * Set whether the dialog window and its views are kept when the dialog is dismissed, so that
+     * showing the same {@link CalcDialog} instance again in the same activity is faster.
+     * Settings can be changed between uses, the calculator is reset each time it's shown.
+     * By default, the dialog is not retained.
+     * @param retained Whether to retain the dialog or not.
+     * @return The settings
+     */
+    public CalcSettings setDialogRetained(boolean retained) {
+        isDialogRetained = retained;
+        return this;
+    }
+
+    public boolean isDialogRetained() {
+        return isDialogRetained;
+    }
+
+    /**
+     * Set the maximum size of the calculator state saved in the instance state, in bytes.
+     * If the state is larger, for example after entering a very long expression, the start of
+     * the expression is replaced by its value in the saved state. The expression shown
+     * isn't changed until the state is restored. If that's not enough, or while the expression
+     * is evaluated, the state is kept in memory instead, and the dialog starts over if the
+     * process is killed. By default, the budget is 32 KB.
+     * @param bytes The maximum size in bytes, or 0 for no maximum.
+     * @return The settings
+     */
+    public CalcSettings setSavedStateBudget(int bytes) {
+        if (bytes < 0) {
+            throw new IllegalArgumentException("Saved state budget must be positive or zero.");
+        }
+        savedStateBudget = bytes;
+        return this;
+    }
+
+    public int getSavedStateBudget() {
+        return savedStateBudget;
+    }
+
+    /**
+     * Set the name of the history in which the values entered are recorded, with their
+     * expression. The history is kept in the app's files and can be read with
+     * {@link CalcHistory#open(android.content.Context, String)}. Dialogs with the same
+     * history name share their history. By default, there's no history.
+     * @param name The history name, a valid file name, or null for no history.
+     * @return The settings
+     */
+    public CalcSettings setHistoryName(@Nullable String name) {
+        if (name != null && (name.isEmpty() || name.indexOf('/') != -1)) {
+            throw new IllegalArgumentException("History name must be a valid file name.");
+        }
+        historyName = name;
+        return this;
+    }
+
+    @Nullable
+    public String getHistoryName() {
+        return historyName;
+    }
+
+    /**
+     * Set the action triggered by a hardware key, for example to remap the keys of an external
+     * numeric keypad. By default, digit, operator, decimal separator, equal, enter, delete,
+     * escape and paste keys are mapped. Ctrl+V also pastes, Ctrl+Z undoes, and Ctrl+Y or
+     * Ctrl+Shift+Z redoes if the key has no action.
+     * @param keyCode A key code, as in {@link KeyEvent}.
+     * @param action The action, or null for no action.
+     * @return The settings
+     */
+    public CalcSettings setKeyAction(int keyCode, @Nullable CalcKeyAction action) {
+        if (keyCode < 0) {
+            throw new IllegalArgumentException("Invalid key code.");
+        }
+        if (keyCode >= keymap.length) {
+            if (action == null) return this;
+            keymap = Arrays.copyOf(keymap, keyCode + 1);
+        } else if (isKeymapShared) {
+            keymap = keymap.clone();
+        }
+        isKeymapShared = false;
+        keymap[keyCode] = (byte) (action == null ? 0 : action.ordinal() + 1);
+        return this;
+    }
+
+    /**
+     * Remove the action of all hardware keys, including the default ones.
+     * @return The settings
+     */
+    public CalcSettings clearKeyActions() {
+        keymap = new byte[0];
+        isKeymapShared = false;
+        return this;
+    }
+
+    /**
+     * @param keyCode A key code, as in {@link KeyEvent}.
+     * @return The action triggered by a hardware key, or null if none.
+     */
+    @Nullable
+    public CalcKeyAction getKeyAction(int keyCode) {
+        if (keyCode < 0 || keyCode >= keymap.length || keymap[keyCode] == 0) {
+            return null;
+        }
+        return KEY_ACTIONS[keymap[keyCode] - 1];
+    }
+
+    private static final byte[] DEFAULT_KEYMAP = createDefaultKeymap();
+
+    private static byte[] createDefaultKeymap() {
+        byte[] keymap = new byte[KeyEvent.KEYCODE_PASTE + 1];
+        mapKeys(keymap, CalcKeyAction.DIGIT_0, KeyEvent.KEYCODE_0, KeyEvent.KEYCODE_NUMPAD_0);
+        mapKeys(keymap, CalcKeyAction.DIGIT_1, KeyEvent.KEYCODE_1, KeyEvent.KEYCODE_NUMPAD_1);
+        mapKeys(keymap, CalcKeyAction.DIGIT_2, KeyEvent.KEYCODE_2, KeyEvent.KEYCODE_NUMPAD_2);
+        mapKeys(keymap, CalcKeyAction.DIGIT_3, KeyEvent.KEYCODE_3, KeyEvent.KEYCODE_NUMPAD_3);
+        mapKeys(keymap, CalcKeyAction.DIGIT_4, KeyEvent.KEYCODE_4, KeyEvent.KEYCODE_NUMPAD_4);
+        mapKeys(keymap, CalcKeyAction.DIGIT_5, KeyEvent.KEYCODE_5, KeyEvent.KEYCODE_NUMPAD_5);
+        mapKeys(keymap, CalcKeyAction.DIGIT_6, KeyEvent.KEYCODE_6, KeyEvent.KEYCODE_NUMPAD_6);
+        mapKeys(keymap, CalcKeyAction.DIGIT_7, KeyEvent.KEYCODE_7, KeyEvent.KEYCODE_NUMPAD_7);
+        mapKeys(keymap, CalcKeyAction.DIGIT_8, KeyEvent.KEYCODE_8, KeyEvent.KEYCODE_NUMPAD_8);
+        mapKeys(keymap, CalcKeyAction.DIGIT_9, KeyEvent.KEYCODE_9, KeyEvent.KEYCODE_NUMPAD_9);
+        mapKeys(keymap, CalcKeyAction.ADD, KeyEvent.KEYCODE_PLUS, KeyEvent.KEYCODE_NUMPAD_ADD);
+        mapKeys(keymap, CalcKeyAction.SUBTRACT, KeyEvent.KEYCODE_MINUS, KeyEvent.KEYCODE_NUMPAD_SUBTRACT);
+        mapKeys(keymap, CalcKeyAction.MULTIPLY, KeyEvent.KEYCODE_N, KeyEvent.KEYCODE_NUMPAD_MULTIPLY);
+        mapKeys(keymap, CalcKeyAction.DIVIDE, KeyEvent.KEYCODE_SLASH, KeyEvent.KEYCODE_NUMPAD_DIVIDE);
+        mapKeys(keymap, CalcKeyAction.DECIMAL_SEP, KeyEvent.KEYCODE_PERIOD, KeyEvent.KEYCODE_NUMPAD_DOT);
+        mapKeys(keymap, CalcKeyAction.EQUAL, KeyEvent.KEYCODE_EQUALS, KeyEvent.KEYCODE_NUMPAD_EQUALS);
+        mapKeys(keymap, CalcKeyAction.ERASE, KeyEvent.KEYCODE_DEL);
+        mapKeys(keymap, CalcKeyAction.CLEAR, KeyEvent.KEYCODE_ESCAPE);
+        mapKeys(keymap, CalcKeyAction.OK, KeyEvent.KEYCODE_ENTER, KeyEvent.KEYCODE_NUMPAD_ENTER);
+        mapKeys(keymap, CalcKeyAction.PASTE, KeyEvent.KEYCODE_PASTE);
+        return keymap;
+    }
+
+    private static void mapKeys(byte[] keymap, CalcKeyAction action, int... keyCodes) {
+        for (int keyCode : keyCodes) {
+            keymap[keyCode] = (byte) (action.ordinal() + 1);
+        }
+    }
+
 
     ////////// PARCELABLE //////////
     private CalcSettings(Parcel in) {
@@ -315,6 +512,19 @@ public class CalcSettings implements Parcelable {
                 maxValue = (BigDecimal) bundle.getSerializable("maxValue");
             }
             isOrderOfOperationsApplied = bundle.getBoolean("isOrderOfOperationsApplied");
+            isRationalEvaluation = bundle.getBoolean("isRationalEvaluation");
+            if (bundle.containsKey("mathContext")) {
+                mathContext = (MathContext) bundle.getSerializable("mathContext");
+            }
+            isDialogRetained = bundle.getBoolean("isDialogRetained");
+            savedStateBudget = bundle.getInt("savedStateBudget", savedStateBudget);
+            historyName = bundle.getString("historyName");
+
+            byte[] keymap = bundle.getByteArray("keymap");
+            if (keymap != null) {
+                this.keymap = keymap;
+                isKeymapShared = false;
+            }
         }
     }
 
@@ -331,12 +541,18 @@ public class CalcSettings implements Parcelable {
         bundle.putBoolean("isCancelBtnShown", isCancelBtnShown);
         bundle.putBoolean("shouldEvaluateOnOperation", shouldEvaluateOnOperation);
         bundle.putBoolean("isOrderOfOperationsApplied", isOrderOfOperationsApplied);
+        bundle.putBoolean("isDialogRetained", isDialogRetained);
+        bundle.putBoolean("isRationalEvaluation", isRationalEvaluation);
+        bundle.putInt("savedStateBudget", savedStateBudget);
+        if (!isKeymapShared) bundle.putByteArray("keymap", keymap);
 
         putNumberFormatInBundle(bundle);
 
         if (initialValue != null) bundle.putSerializable("initialValue", initialValue);
         if (minValue != null) bundle.putSerializable("minValue", minValue);
         if (maxValue != null) bundle.putSerializable("maxValue", maxValue);
+        if (mathContext != null) bundle.putSerializable("mathContext", mathContext);
+        if (historyName != null) bundle.putString("historyName", historyName);
 
         try {
             out.writeBundle(bundle);
@@ -347,44 +563,48 @@ public class CalcSettings implements Parcelable {
     }
 
     private void putNumberFormatInBundle(Bundle bundle) {
-        bundle.putSerializable("nbFormat", nbFormat);
         if (nbFormat instanceof DecimalFormat) {
-            bundle.putSerializable("nbfmtPattern", ((DecimalFormat) nbFormat).toPattern());
+            // Most formats are decimal formats, which are saved as a compact descriptor.
+            bundle.putByteArray("nbfmtDescriptor", NumberFormatCodec.encode((DecimalFormat) nbFormat));
+        } else {
+            bundle.putSerializable("nbFormat", nbFormat);
         }
     }
 
     private NumberFormat getNumberFormatFromBundle(Bundle bundle) {
         NumberFormat nbFmt = null;
-        try {
-            nbFmt = (NumberFormat) bundle.getSerializable("nbFormat");
-            if (nbFmt != null) {
-                try {
-                    //noinspection ConstantConditions
-                    if (nbFmt.getRoundingMode() == null) {
-                        // Often, NumberFormat deserialization succeeds but its rounding mode
-                        // is still `null`, which will make some operations like division fail.
-                        // So set a default one.
-                        nbFmt.setRoundingMode(RoundingMode.HALF_EVEN);
-                        Log.e(TAG, "Failed to deserialize DecimalFormat rounding mode, reset to HALF_EVEN.");
+        byte[] descriptor = bundle.getByteArray("nbfmtDescriptor");
+        if (descriptor != null) {
+            try {
+                nbFmt = NumberFormatCodec.decode(descriptor);
+            } catch (IllegalArgumentException e) {
+                Log.e(TAG, "Failed to decode DecimalFormat.", e);
+            }
+        } else {
+            try {
+                nbFmt = (NumberFormat) bundle.getSerializable("nbFormat");
+                if (nbFmt != null) {
+                    try {
+                        //noinspection ConstantConditions
+                        if (nbFmt.getRoundingMode() == null) {
+                            // Often, NumberFormat deserialization succeeds but its rounding mode
+                            // is still `null`, which will make some operations like division fail.
+                            // So set a default one.
+                            nbFmt.setRoundingMode(RoundingMode.HALF_EVEN);
+                            Log.e(TAG, "Failed to deserialize NumberFormat rounding mode, reset to HALF_EVEN.");
+                        }
+                    } catch (UnsupportedOperationException uoe) {
+                        // Number format doesn't have a rounding mode.
                     }
-                } catch (UnsupportedOperationException uoe) {
-                    // Number format doesn't have a rounding mode.
                 }
-            }
-        } catch (NullPointerException npe) {
-            // Very rarely and on API >= 28, Bundle will fail to get serialized NumberFormat.
-            // This issue is related to: https://stackoverflow.com/a/54155356/5288316.
-            // Luckily, NumberFormat is most often a DecimalFormat, which can be saved
-            // using a pattern. Note that the naming of the key is important here, it must
-            // not start with "nbFormat" for some reason!
-            if (bundle.containsKey("nbfmtPattern")) {
-                nbFmt = new DecimalFormat(bundle.getString("nbfmtPattern", ""));
-            } else {
+            } catch (NullPointerException npe) {
+                // Very rarely and on API >= 28, Bundle will fail to get serialized NumberFormat.
+                // This issue is related to: https://stackoverflow.com/a/54155356/5288316.
                 Log.e(TAG, "Failed to deserialize NumberFormat.");
             }
-            // Otherwise number format is lost for good, keep default.
         }
         if (nbFmt == null) {
+            // Number format is lost for good, keep default.
             nbFmt = NumberFormat.getInstance();
         }
         return nbFmt;
@@ -0,0 +1,61 @@
+package com.github.inbalboa.calcdialog;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.math.BigDecimal;
+
+/**
+ * View displaying the calculator, driven by {@link CalcPresenter}.
+ */
+interface CalcView {
+
+    @NonNull
+    CalcSettings getSettings();
+
+    void exit();
+
+    void sendValueResult(BigDecimal value);
+
+    /**
+     * Record a value entered in the history set in the settings, without waiting for it.
+     * @param expression The expression the value was computed from, as shown.
+     */
+    void addHistoryEntry(@NonNull String expression, @NonNull BigDecimal value);
+
+    void setExpressionVisible(boolean visible);
+
+    void setAnswerBtnVisible(boolean visible);
+
+    void setSignBtnVisible(boolean visible);
+
+    void setCancelBtnVisible(boolean visible);
+
+    void setDecimalSepBtnEnabled(boolean enabled);
+
+    void updateExpression(@NonNull String text);
+
+    void updateCurrentValue(@Nullable String text);
+
+    void showErrorText(int error);
+
+    void showAnswerText();
+
+    /**
+     * Show that the current value is being computed.
+     */
+    void showComputingText();
+
+    /**
+     * Request {@link CalcPresenter#render()} to be called, once, before the next frame.
+     */
+    void requestRender();
+
+    /**
+     * Run a task on a background thread, then a callback on the main thread when it's done,
+     * unless the task threw an exception. Tasks must run one at a time, in the order given,
+     * since a task may continue the work of a cancelled one.
+     */
+    void runInBackground(@NonNull Runnable task, @NonNull Runnable callback);
+
+}
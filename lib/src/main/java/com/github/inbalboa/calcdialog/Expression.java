@@ -4,124 +4,817 @@ import android.os.Parcel;
 import android.os.Parcelable;
 
 import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
 
 import java.math.BigDecimal;
+import java.math.MathContext;
 import java.math.RoundingMode;
 import java.text.NumberFormat;
 import java.util.ArrayList;
-import java.util.List;
+import java.util.Arrays;
+import java.util.Objects;
+import java.util.concurrent.CancellationException;
 
 class Expression implements Parcelable {
-    final List<BigDecimal> numbers = new ArrayList<>();
-    final List<Operator> operators = new ArrayList<>();
+    private static final Operator[] OPERATORS = Operator.values();
+
+    /** Scale marking a number stored in {@link #bigNumbers}. */
+    private static final int BIG_SCALE = Integer.MIN_VALUE;
+
+    /** Mask of the number indexes at which evaluation checks if it was cancelled. */
+    private static final int CANCEL_CHECK_MASK = 0xFF;
+
+    // Operators are stored by ordinal. Numbers are stored as an unscaled long value and a scale,
+    // except for numbers that don't fit in a long, which are stored in a separate list and
+    // marked with BIG_SCALE. Since numbers are only appended and removed at the end,
+    // a big number is always the last one in the list when it's removed.
+    private byte[] operators = new byte[8];
+    private int operatorCount;
+    private long[] unscaledValues = new long[8];
+    private int[] scales = new int[8];
+    private int numberCount;
+    private final ArrayList<BigDecimal> bigNumbers = new ArrayList<>();
+
+    // Running evaluation state after each number, so that evaluating after appending
+    // a term doesn't require evaluating the whole expression again. For each number index,
+    // this is the sum of the completed terms, the operator joining the sum to the current
+    // term (null if there's no sum), and the current term. Without priority, only the term
+    // is used. Numbers in these arrays are reused to avoid allocating during evaluation.
+    // With rational evaluation, the fraction arrays are used instead of the decimal ones.
+    private ScaledDecimal[] runSums = new ScaledDecimal[8];
+    private Operator[] runSumOps = new Operator[8];
+    private ScaledDecimal[] runTerms = new ScaledDecimal[8];
+    private Rational[] runRationalSums = new Rational[0];
+    private Rational[] runRationalTerms = new Rational[0];
+    private int runCount;
+    private boolean runPriority;
+    private int runScale;
+    private RoundingMode runRoundingMode;
+    @Nullable
+    private MathContext runMathContext;
+    private boolean runRational;
+    private final ScaledDecimal runNumber = new ScaledDecimal();
+    private final ScaledDecimal runResult = new ScaledDecimal();
+    private final Rational runRationalNumber = new Rational();
+    private final Rational runRationalResult = new Rational();
+
+    /**
+     * Index of the first term changed since the last call to {@link #takeChangedFrom()},
+     * where terms are the numbers and operators in order, number {@code i} being term
+     * {@code 2i} and operator {@code i} being term {@code 2i + 1}.
+     */
+    private int changedFrom;
+
+    /** Set from another thread to stop evaluating, see {@link #cancelEvaluation()}. */
+    private volatile boolean evaluationCancelled;
+
+    /**
+     * Number of leading numbers unchanged since the running state was moved to a copy by
+     * {@link #copyForEvaluation(Expression)}, for which the running state of the copy is
+     * still valid and can be taken back.
+     */
+    private int copyValidCount;
+
+    // In a copy made by copyForEvaluation, the previous copy whose running state is taken
+    // by this one before evaluating, and the number of leading numbers it's valid for.
+    @Nullable
+    private Expression previousCopy;
+    private int previousCopyValidCount;
+
+    // Text of the expression formatted with the last format used, updated as terms are
+    // added and removed, with the offset at which the text of each number starts.
+    // The text for each number is the number, a space, its operator if any, and a space.
+    @Nullable
+    private NumberFormat textFormat;
+    private final StringBuilder text = new StringBuilder();
+    private int[] textOffsets = new int[8];
 
     Expression() {}
 
     void clear() {
-        numbers.clear();
-        operators.clear();
+        operatorCount = 0;
+        numberCount = 0;
+        bigNumbers.clear();
+        invalidateRunningState(0);
+        text.setLength(0);
+        changedFrom = 0;
     }
 
     boolean isNonEmpty() {
-        return !numbers.isEmpty();
+        return numberCount > 0;
+    }
+
+    int getNumberCount() {
+        return numberCount;
+    }
+
+    int getOperatorCount() {
+        return operatorCount;
+    }
+
+    @NonNull
+    BigDecimal getNumber(int index) {
+        int scale = scales[index];
+        if (scale == BIG_SCALE) {
+            return bigNumbers.get((int) unscaledValues[index]);
+        }
+        return BigDecimal.valueOf(unscaledValues[index], scale);
+    }
+
+    @NonNull
+    Operator getOperator(int index) {
+        return OPERATORS[operators[index]];
+    }
+
+    void addNumber(@NonNull BigDecimal number) {
+        if (number.precision() < 19 && number.scale() != BIG_SCALE) {
+            addNumber(number.unscaledValue().longValue(), number.scale());
+        } else {
+            ensureNumberCapacity();
+            unscaledValues[numberCount] = bigNumbers.size();
+            scales[numberCount] = BIG_SCALE;
+            bigNumbers.add(number);
+            numberAdded();
+        }
+    }
+
+    /**
+     * Add a number given by its unscaled value and scale, without creating a BigDecimal.
+     */
+    void addNumber(long unscaled, int scale) {
+        if (scale == BIG_SCALE) {
+            addNumber(BigDecimal.valueOf(unscaled, scale));
+            return;
+        }
+        ensureNumberCapacity();
+        unscaledValues[numberCount] = unscaled;
+        scales[numberCount] = scale;
+        numberAdded();
+    }
+
+    private void ensureNumberCapacity() {
+        if (numberCount == scales.length) {
+            unscaledValues = Arrays.copyOf(unscaledValues, numberCount * 2);
+            scales = Arrays.copyOf(scales, numberCount * 2);
+            textOffsets = Arrays.copyOf(textOffsets, numberCount * 2);
+        }
+    }
+
+    private void numberAdded() {
+        numberCount++;
+        termChanged(2 * (numberCount - 1));
+        if (textFormat != null) {
+            appendNumberText(text, textFormat, numberCount - 1);
+        }
+    }
+
+    void addOperator(@NonNull Operator operator) {
+        if (operatorCount == operators.length) {
+            operators = Arrays.copyOf(operators, operatorCount * 2);
+        }
+        operators[operatorCount] = (byte) operator.ordinal();
+        operatorCount++;
+        termChanged(2 * operatorCount - 1);
+
+        if (textFormat != null) {
+            if (operatorCount == numberCount) {
+                // Operator of the last number: "1  " becomes "1 + ".
+                text.setLength(text.length() - 1);
+                text.append(operator.symbol);
+                text.append(' ');
+            } else {
+                invalidateText(operatorCount - 1);
+            }
+        }
+    }
+
+    /**
+     * Replace the last operator of the expression.
+     * @param operator The new operator.
+     */
+    void setLastOperator(@NonNull Operator operator) {
+        int last = operatorCount - 1;
+        operators[last] = (byte) operator.ordinal();
+        invalidateRunningState(last + 1);
+        termChanged(2 * last + 1);
+
+        if (textFormat != null) {
+            if (operatorCount == numberCount) {
+                text.setCharAt(text.length() - 2, operator.symbol);
+            } else {
+                invalidateText(last);
+            }
+        }
+    }
+
+    void removeLastOperator() {
+        operatorCount--;
+        invalidateRunningState(operatorCount + 1);
+        termChanged(2 * operatorCount + 1);
+
+        if (textFormat != null) {
+            if (operatorCount + 1 == numberCount) {
+                // "1 + " becomes "1  ".
+                text.setLength(text.length() - 2);
+                text.append(' ');
+            } else {
+                invalidateText(operatorCount);
+            }
+        }
+    }
+
+    /**
+     * Remove the last number of the expression.
+     * @return The removed number.
+     */
+    @NonNull
+    BigDecimal removeLastNumber() {
+        BigDecimal number = getNumber(numberCount - 1);
+        numberCount--;
+        if (scales[numberCount] == BIG_SCALE) {
+            bigNumbers.remove(bigNumbers.size() - 1);
+        }
+        invalidateRunningState(numberCount);
+        termChanged(2 * numberCount);
+        if (textFormat != null) {
+            text.setLength(textOffsets[numberCount]);
+        }
+        return number;
+    }
+
+    private void termChanged(int index) {
+        if (index < changedFrom) {
+            changedFrom = index;
+        }
+    }
+
+    /**
+     * Get the index of the first term changed since the last call, so that a copy of the terms
+     * can be updated without comparing them all. Changes of a new expression start at 0.
+     * @see #changedFrom
+     */
+    int takeChangedFrom() {
+        int from = changedFrom;
+        changedFrom = numberCount + operatorCount;
+        return from;
+    }
+
+    /**
+     * Set a number of the running state to a number of the expression.
+     */
+    private void loadNumber(int index, ScaledDecimal dst) {
+        int scale = scales[index];
+        if (scale == BIG_SCALE) {
+            dst.set(bigNumbers.get((int) unscaledValues[index]));
+        } else {
+            dst.set(unscaledValues[index], scale);
+        }
+    }
+
+    /**
+     * Set a number of the running state to a number of the expression.
+     */
+    private void loadNumber(int index, Rational dst) {
+        int scale = scales[index];
+        if (scale == BIG_SCALE) {
+            dst.set(bigNumbers.get((int) unscaledValues[index]));
+        } else {
+            dst.set(unscaledValues[index], scale);
+        }
+    }
+
+    /**
+     * Evaluate the expression and return the result, with exact results for all operations
+     * except division.
+     * @see #evaluate(boolean, int, RoundingMode, MathContext)
+     */
+    @NonNull
+    BigDecimal evaluate(boolean priority, int scale, RoundingMode roundingMode) {
+        return evaluate(priority, scale, roundingMode, null);
     }
 
     /**
      * Evaluate the expression and return the result.
+     * Evaluation is done in a single pass keeping only the sum of the completed terms and
+     * the current term. This state is kept for each number, so that evaluating again
+     * after a term was appended or removed with the same parameters takes constant time.
      * @param priority     Whether to apply operation priority or not.
      * @param scale        Scale used for division.
      * @param roundingMode Rounding mode used for division.
+     * @param mathContext  Precision to which the result of each operation is rounded,
+     *                     so that the number of digits doesn't grow. Null for none.
      * @return The result.
      * @throws ArithmeticException if a division by zero occurred.
+     * @throws CancellationException if evaluation was cancelled.
      */
     @NonNull
-    BigDecimal evaluate(boolean priority, int scale, RoundingMode roundingMode) {
-        if (numbers.size() != operators.size() + 1) {
+    BigDecimal evaluate(boolean priority, int scale, RoundingMode roundingMode,
+                        @Nullable MathContext mathContext) {
+        int count = numberCount;
+        if (count != operatorCount + 1) {
             throw new IllegalStateException("Numbers and operators aren't balanced.");
         }
 
-        if (numbers.size() == 1) return numbers.get(0);
-
-        List<BigDecimal> nbs = new ArrayList<>(numbers);
-        List<Operator> ops = new ArrayList<>(operators);
-
-        if (priority) {
-            // Evaluate products and quotients
-            int i = 0;
-            while (i < ops.size()) {
-                Operator op = ops.get(i);
-                if (op == Operator.MULTIPLY) {
-                    ops.remove(i);
-                    BigDecimal n1 = nbs.get(i);
-                    BigDecimal n2 = nbs.remove(i + 1);
-                    nbs.set(i, n1.multiply(n2));
-                } else if (op == Operator.DIVIDE) {
-                    ops.remove(i);
-                    BigDecimal n1 = nbs.get(i);
-                    BigDecimal n2 = nbs.remove(i + 1);
-                    nbs.set(i, n1.divide(n2, scale, roundingMode));
-                } else {
-                    i++;
+        if (count == 1) return getNumber(0);
+
+        prepareRunningState(priority, scale, roundingMode, mathContext, false);
+        if (runTerms.length < count) {
+            int capacity = Math.max(count, runTerms.length * 2);
+            runSums = Arrays.copyOf(runSums, capacity);
+            runTerms = Arrays.copyOf(runTerms, capacity);
+        }
+        if (runSumOps.length < count) {
+            runSumOps = Arrays.copyOf(runSumOps, runTerms.length);
+        }
+
+        if (runCount == 0) {
+            runSumOps[0] = null;
+            loadNumber(0, runTerm(0));
+            runCount = 1;
+        }
+        while (runCount < count) {
+            int i = runCount;
+            if ((i & CANCEL_CHECK_MASK) == 0 && evaluationCancelled) {
+                throw new CancellationException();
+            }
+            ScaledDecimal sum = runSum(i);
+            ScaledDecimal term = runTerm(i);
+            Operator sumOp = runSumOps[i - 1];
+            Operator op = OPERATORS[operators[i - 1]];
+            loadNumber(i, runNumber);
+            if (priority && !op.isPriority()) {
+                // Term is complete, add it to the sum and start a new one.
+                sum.set(runTerms[i - 1]);
+                if (sumOp != null) {
+                    sum.set(runSums[i - 1]);
+                    sum.apply(sumOp, runTerms[i - 1], scale, roundingMode, mathContext);
                 }
+                sumOp = op;
+                term.set(runNumber);
+            } else {
+                if (sumOp != null) {
+                    sum.set(runSums[i - 1]);
+                }
+                term.set(runTerms[i - 1]);
+                term.apply(op, runNumber, scale, roundingMode, mathContext);
             }
+            runSumOps[i] = sumOp;
+            runCount++;
+        }
+
+        ScaledDecimal result = runTerms[count - 1];
+        Operator sumOp = runSumOps[count - 1];
+        if (sumOp != null) {
+            runResult.set(runSums[count - 1]);
+            runResult.apply(sumOp, result, scale, roundingMode, mathContext);
+            result = runResult;
         }
 
-        // Evaluate the rest
-        while (!ops.isEmpty()) {
-            Operator op = ops.remove(0);
-            BigDecimal n1 = nbs.get(0);
-            BigDecimal n2 = nbs.remove(1);
-            if (op == Operator.ADD) {
-                nbs.set(0, n1.add(n2));
-            } else if (op == Operator.SUBTRACT) {
-                nbs.set(0, n1.subtract(n2));
-            } else if (op == Operator.MULTIPLY) {
-                nbs.set(0, n1.multiply(n2));
+        return result.toStrippedBigDecimal();
+    }
+
+    /**
+     * Evaluate the expression with fractions and return the result. Division results aren't
+     * rounded: if there's a division, the result is divided and rounded only once at the end.
+     * This gives exact results, for example for "1 ÷ 3 × 3", and avoids a division per term.
+     * Running state is kept as with {@link #evaluate(boolean, int, RoundingMode, MathContext)}.
+     * @param priority     Whether to apply operation priority or not.
+     * @param scale        Scale of the result if there's a division.
+     * @param roundingMode Rounding mode of the result if there's a division.
+     * @param mathContext  Precision to which the result is rounded, null for none.
+     * @return The result.
+     * @throws ArithmeticException if a division by zero occurred.
+     * @throws CancellationException if evaluation was cancelled.
+     */
+    @NonNull
+    BigDecimal evaluateRational(boolean priority, int scale, RoundingMode roundingMode,
+                                @Nullable MathContext mathContext) {
+        int count = numberCount;
+        if (count != operatorCount + 1) {
+            throw new IllegalStateException("Numbers and operators aren't balanced.");
+        }
+
+        if (count == 1) return getNumber(0);
+
+        // Precision only applies to the result, so it doesn't change the running state.
+        prepareRunningState(priority, scale, roundingMode, null, true);
+        if (runRationalTerms.length < count) {
+            int capacity = Math.max(count, runRationalTerms.length * 2);
+            runRationalSums = Arrays.copyOf(runRationalSums, capacity);
+            runRationalTerms = Arrays.copyOf(runRationalTerms, capacity);
+        }
+        if (runSumOps.length < count) {
+            runSumOps = Arrays.copyOf(runSumOps, runRationalTerms.length);
+        }
+        if (runCount == 0) {
+            runSumOps[0] = null;
+            loadNumber(0, runRationalTerm(0));
+            runCount = 1;
+        }
+        while (runCount < count) {
+            int i = runCount;
+            if ((i & CANCEL_CHECK_MASK) == 0 && evaluationCancelled) {
+                throw new CancellationException();
+            }
+            Rational sum = runRationalSum(i);
+            Rational term = runRationalTerm(i);
+            Operator sumOp = runSumOps[i - 1];
+            Operator op = OPERATORS[operators[i - 1]];
+            loadNumber(i, runRationalNumber);
+            if (priority && !op.isPriority()) {
+                // Term is complete, add it to the sum and start a new one.
+                sum.set(runRationalTerms[i - 1]);
+                if (sumOp != null) {
+                    sum.set(runRationalSums[i - 1]);
+                    sum.apply(sumOp, runRationalTerms[i - 1]);
+                }
+                sumOp = op;
+                term.set(runRationalNumber);
             } else {
-                nbs.set(0, n1.divide(n2, scale, roundingMode));
+                if (sumOp != null) {
+                    sum.set(runRationalSums[i - 1]);
+                }
+                term.set(runRationalTerms[i - 1]);
+                term.apply(op, runRationalNumber);
+            }
+            runSumOps[i] = sumOp;
+            runCount++;
+        }
+
+        Rational result = runRationalTerms[count - 1];
+        Operator sumOp = runSumOps[count - 1];
+        if (sumOp != null) {
+            runRationalResult.set(runRationalSums[count - 1]);
+            runRationalResult.apply(sumOp, result);
+            result = runRationalResult;
+        }
+
+        BigDecimal value = result.toStrippedBigDecimal(scale, roundingMode);
+        return mathContext != null ? value.round(mathContext).stripTrailingZeros() : value;
+    }
+
+    /**
+     * Evaluate the expression with decimals or with fractions.
+     * @param rational Whether to evaluate with fractions, as
+     *                 {@link #evaluateRational(boolean, int, RoundingMode, MathContext)},
+     *                 or with decimals, as {@link #evaluate(boolean, int, RoundingMode, MathContext)}.
+     */
+    @NonNull
+    BigDecimal evaluate(boolean priority, int scale, RoundingMode roundingMode,
+                        @Nullable MathContext mathContext, boolean rational) {
+        return rational ? evaluateRational(priority, scale, roundingMode, mathContext)
+                : evaluate(priority, scale, roundingMode, mathContext);
+    }
+
+    /**
+     * Get the number of numbers that evaluating with some parameters would go through,
+     * which are the numbers appended since the last evaluation with the same parameters.
+     */
+    int getUnevaluatedCount(boolean priority, int scale, RoundingMode roundingMode,
+                            @Nullable MathContext mathContext, boolean rational) {
+        if (priority != runPriority || scale != runScale || roundingMode != runRoundingMode
+                || !Objects.equals(rational ? null : mathContext, runMathContext)
+                || rational != runRational) {
+            return numberCount;
+        }
+        return Math.max(0, numberCount - runCount);
+    }
+
+    /**
+     * Invalidate the running state if it was computed with other parameters.
+     */
+    private void prepareRunningState(boolean priority, int scale, RoundingMode roundingMode,
+                                     @Nullable MathContext mathContext, boolean rational) {
+        if (priority != runPriority || scale != runScale || roundingMode != runRoundingMode
+                || !Objects.equals(mathContext, runMathContext) || rational != runRational) {
+            invalidateRunningState(0);
+            runPriority = priority;
+            runScale = scale;
+            runRoundingMode = roundingMode;
+            runMathContext = mathContext;
+            runRational = rational;
+        }
+    }
+
+    private Rational runRationalSum(int i) {
+        if (runRationalSums[i] == null) {
+            runRationalSums[i] = new Rational();
+        }
+        return runRationalSums[i];
+    }
+
+    private Rational runRationalTerm(int i) {
+        if (runRationalTerms[i] == null) {
+            runRationalTerms[i] = new Rational();
+        }
+        return runRationalTerms[i];
+    }
+
+    private ScaledDecimal runSum(int i) {
+        if (runSums[i] == null) {
+            runSums[i] = new ScaledDecimal();
+        }
+        return runSums[i];
+    }
+
+    private ScaledDecimal runTerm(int i) {
+        if (runTerms[i] == null) {
+            runTerms[i] = new ScaledDecimal();
+        }
+        return runTerms[i];
+    }
+
+    /**
+     * Find the smallest number of leading numbers, at least a minimum, that can be replaced
+     * by their value with {@link #collapse} without changing the result, or the largest one
+     * if there's none above the minimum. With priority, the numbers must form complete terms,
+     * or be a product or quotient.
+     * @param min      The minimum number of numbers.
+     * @param max      The maximum number of numbers, for example the number of numbers already
+     *                 evaluated, which are collapsed without evaluating anything.
+     * @param priority Whether operation priority is applied or not.
+     * @return The number of numbers, or 0 if no numbers can be collapsed.
+     */
+    int getCollapsibleCount(int min, int max, boolean priority) {
+        int firstSum = 0;
+        while (firstSum < operatorCount && OPERATORS[operators[firstSum]].isPriority()) {
+            firstSum++;
+        }
+        int found = 0;
+        for (int count = Math.min(numberCount, max); count >= 2; count--) {
+            if (!priority || count > operatorCount || count - 1 <= firstSum
+                    || !OPERATORS[operators[count - 1]].isPriority()) {
+                if (count < min && found != 0) break;
+                found = count;
+                if (count < min) break;
             }
         }
+        return found;
+    }
+
+    /**
+     * Create a copy of this expression in which leading numbers are replaced by their value,
+     * for example "1 + 2 + 3 × 4" becomes "3 + 3 × 4" when collapsing 2 numbers.
+     * The count must be given by {@link #getCollapsibleCount(int, int, boolean)}.
+     * @param count        The number of leading numbers to replace.
+     * @param priority     Whether to apply operation priority or not.
+     * @param scale        Scale used for division.
+     * @param roundingMode Rounding mode used for division.
+     * @param mathContext  Precision of operations, null for none.
+     * @param rational     Whether to evaluate with fractions, as
+     *                     {@link #evaluateRational(boolean, int, RoundingMode, MathContext)}.
+     * @return The collapsed expression.
+     * @throws ArithmeticException if a division by zero occurred in the leading numbers.
+     */
+    @NonNull
+    Expression collapse(int count, boolean priority, int scale, RoundingMode roundingMode,
+                        @Nullable MathContext mathContext, boolean rational) {
+        // Evaluate the leading numbers only, which reuses the running state.
+        int numbers = numberCount;
+        int ops = operatorCount;
+        BigDecimal value;
+        numberCount = count;
+        operatorCount = count - 1;
+        try {
+            value = evaluate(priority, scale, roundingMode, mathContext, rational);
+        } finally {
+            numberCount = numbers;
+            operatorCount = ops;
+        }
+
+        Expression expr = new Expression();
+        expr.addNumber(value);
+        for (int i = count - 1; i < operatorCount; i++) {
+            expr.addOperator(OPERATORS[operators[i]]);
+            if (i + 1 < numberCount) {
+                expr.addNumber(getNumber(i + 1));
+            }
+        }
+        return expr;
+    }
+
+    /**
+     * Create a copy of this expression to evaluate on another thread. The running state is
+     * moved to the copy so that it's not evaluated again, and it can be moved back after
+     * evaluation with {@link #adoptRunningState(Expression)}, even if it was cancelled.
+     * @param previous The last copy made, if its running state wasn't taken back because its
+     *                 evaluation was cancelled and may still be running. The new copy takes it
+     *                 with {@link #adoptPreviousRunningState()}. Null if there's none.
+     */
+    @NonNull
+    Expression copyForEvaluation(@Nullable Expression previous) {
+        Expression expr = new Expression();
+        expr.operators = operators.clone();
+        expr.operatorCount = operatorCount;
+        expr.unscaledValues = unscaledValues.clone();
+        expr.scales = scales.clone();
+        expr.textOffsets = new int[scales.length];
+        expr.numberCount = numberCount;
+        expr.bigNumbers.addAll(bigNumbers);
+
+        expr.runSums = runSums;
+        expr.runSumOps = runSumOps;
+        expr.runTerms = runTerms;
+        expr.runRationalSums = runRationalSums;
+        expr.runRationalTerms = runRationalTerms;
+        expr.runCount = runCount;
+        expr.runPriority = runPriority;
+        expr.runScale = runScale;
+        expr.runRoundingMode = runRoundingMode;
+        expr.runMathContext = runMathContext;
+        expr.runRational = runRational;
+        if (previous != null) {
+            expr.previousCopy = previous;
+            expr.previousCopyValidCount = copyValidCount;
+        }
+
+        runSums = new ScaledDecimal[8];
+        runSumOps = new Operator[8];
+        runTerms = new ScaledDecimal[8];
+        runRationalSums = new Rational[0];
+        runRationalTerms = new Rational[0];
+        runCount = 0;
+        copyValidCount = numberCount;
+        return expr;
+    }
+
+    /**
+     * Take back the running state of the last copy made by {@link #copyForEvaluation(Expression)},
+     * once it's no longer evaluated, whether the evaluation was done or cancelled. The state is
+     * only kept for the numbers evaluated in the copy that weren't changed since the copy was
+     * made, and only if that's more than the numbers evaluated in this expression since.
+     * The copy must not be used after.
+     */
+    void adoptRunningState(@NonNull Expression copy) {
+        adoptRunningState(copy, copyValidCount);
+    }
+
+    /**
+     * In a copy made by {@link #copyForEvaluation(Expression)}, take the running state of
+     * the previous copy, if any. This must be called on the thread evaluating this copy,
+     * once the previous copy is no longer evaluated.
+     */
+    void adoptPreviousRunningState() {
+        if (previousCopy != null) {
+            adoptRunningState(previousCopy, previousCopyValidCount);
+            previousCopy = null;
+        }
+    }
 
-        return nbs.remove(0).stripTrailingZeros();
+    private void adoptRunningState(@NonNull Expression copy, int validCount) {
+        int count = Math.min(Math.min(copy.runCount, validCount), numberCount);
+        if (count <= runCount) return;
+
+        runSums = copy.runSums;
+        runSumOps = copy.runSumOps;
+        runTerms = copy.runTerms;
+        runRationalSums = copy.runRationalSums;
+        runRationalTerms = copy.runRationalTerms;
+        runCount = count;
+        runPriority = copy.runPriority;
+        runScale = copy.runScale;
+        runRoundingMode = copy.runRoundingMode;
+        runMathContext = copy.runMathContext;
+        runRational = copy.runRational;
+    }
+
+    /**
+     * Stop the evaluation of this expression running on another thread, which throws
+     * a {@link CancellationException}. The expression can't be evaluated after, but the running
+     * state evaluated until then can still be taken back.
+     */
+    void cancelEvaluation() {
+        evaluationCancelled = true;
+    }
+
+    /**
+     * Invalidate the running state from a number index.
+     * @param from Index of the first number whose state is no longer valid.
+     */
+    private void invalidateRunningState(int from) {
+        if (from < runCount) {
+            runCount = from;
+        }
+        if (from < copyValidCount) {
+            copyValidCount = from;
+        }
     }
 
     /**
      * Format the expression to a string.
+     * The text is kept and updated as terms are added and removed, so that only
+     * the new numbers are formatted. The whole expression is formatted again only if
+     * the number format is not the same instance as the last time. For this reason,
+     * the number format must not be modified between calls.
      * @param nbFormat The format to use for formatting numbers.
      * @return The expression string.
      */
     String format(NumberFormat nbFormat) {
-        StringBuilder sb = new StringBuilder();
-        for (int i = 0; i < numbers.size(); i++) {
-            sb.append(nbFormat.format(numbers.get(i)));
-            sb.append(' ');
-            if (i < operators.size()) {
-                sb.append(operators.get(i).symbol);
+        if (nbFormat != textFormat) {
+            textFormat = nbFormat;
+            text.setLength(0);
+            for (int i = 0; i < numberCount; i++) {
+                appendNumberText(text, nbFormat, i);
             }
-            sb.append(' ');
         }
-        if (sb.length() != 0) {
-            sb.deleteCharAt(sb.length() - 1);
+        return getText(text);
+    }
+
+    /**
+     * Append the text for a number of the expression and its operator.
+     */
+    private void appendNumberText(StringBuilder sb, NumberFormat nbFormat, int index) {
+        if (sb == text) {
+            textOffsets[index] = sb.length();
+        }
+        sb.append(nbFormat.format(getNumber(index)));
+        sb.append(' ');
+        if (index < operatorCount) {
+            sb.append(OPERATORS[operators[index]].symbol);
+        }
+        sb.append(' ');
+    }
+
+    /**
+     * Invalidate the formatted text after an operator not belonging to the
+     * last number was changed. The text will be formatted again on the next call.
+     */
+    private void invalidateText(int operatorIndex) {
+        if (operatorIndex < numberCount) {
+            textFormat = null;
         }
-        return sb.toString();
+    }
+
+    private static String getText(StringBuilder sb) {
+        // Last space is not included.
+        return sb.length() == 0 ? "" : sb.substring(0, sb.length() - 1);
     }
 
     @NonNull
     @Override
     public String toString() {
-        return format(NumberFormat.getInstance());
+        // Not using the kept text since the format would change.
+        StringBuilder sb = new StringBuilder();
+        NumberFormat nbFormat = NumberFormat.getInstance();
+        for (int i = 0; i < numberCount; i++) {
+            appendNumberText(sb, nbFormat, i);
+        }
+        return getText(sb);
     }
 
-    ////////// PARCELABLE //////////
-    private Expression(Parcel in) {
-        in.readList(numbers, BigDecimal.class.getClassLoader());
-        in.readList(operators, Operator.class.getClassLoader());
+    ////////// ENCODING //////////
+
+    /**
+     * Write the expression with the compact state encoding.
+     * Operators are written as bytes, followed by the numbers.
+     */
+    void encode(@NonNull StateCodec.Writer writer) {
+        writer.writeInt(operatorCount);
+        writer.writeBytes(operators, operatorCount);
+        writer.writeInt(numberCount);
+        for (int i = 0; i < numberCount; i++) {
+            int scale = scales[i];
+            if (scale == BIG_SCALE) {
+                writer.writeDecimal(bigNumbers.get((int) unscaledValues[i]));
+            } else {
+                writer.writeDecimal(unscaledValues[i], scale);
+            }
+        }
     }
 
+    /**
+     * Read an expression written by {@link #encode(StateCodec.Writer)}.
+     * @throws IllegalArgumentException if the encoded expression is invalid.
+     */
+    @NonNull
+    static Expression decode(@NonNull StateCodec.Reader reader) {
+        Expression expr = new Expression();
+        int opCount = reader.readInt();
+        byte[] ops = reader.readBytes(opCount);
+        for (byte op : ops) {
+            if (op < 0 || op >= OPERATORS.length) {
+                throw new IllegalArgumentException("Invalid encoded operator");
+            }
+        }
+        int count = reader.readInt();
+        if (opCount != count && opCount + 1 != count) {
+            throw new IllegalArgumentException("Invalid encoded expression");
+        }
+
+        expr.operators = Arrays.copyOf(ops, Math.max(8, opCount));
+        expr.operatorCount = opCount;
+        for (int i = 0; i < count; i++) {
+            expr.addNumber(reader.readDecimal());
+        }
+        return expr;
+    }
+
+    ////////// PARCELABLE //////////
     @Override
     public void writeToParcel(@NonNull Parcel out, int flags) {
-        out.writeList(numbers);
-        out.writeList(operators);
+        StateCodec.Writer writer = new StateCodec.Writer();
+        encode(writer);
+        out.writeByteArray(writer.toByteArray());
     }
 
     @Override
@@ -132,7 +825,7 @@ class Expression implements Parcelable {
     public static final Creator<Expression> CREATOR = new Creator<>() {
         @Override
         public Expression createFromParcel(Parcel in) {
-            return new Expression(in);
+            return decode(new StateCodec.Reader(in.createByteArray()));
         }
 
         @Override
@@ -149,6 +842,32 @@ class Expression implements Parcelable {
         Operator(char symbol) {
             this.symbol = symbol;
         }
+
+        /**
+         * @return Whether this operator has priority over addition and subtraction.
+         */
+        boolean isPriority() {
+            return this == MULTIPLY || this == DIVIDE;
+        }
+
+        /**
+         * Apply this operator on two numbers.
+         * @param n1           The left operand.
+         * @param n2           The right operand.
+         * @param scale        Scale used for division.
+         * @param roundingMode Rounding mode used for division.
+         * @return The result.
+         * @throws ArithmeticException if a division by zero occurred.
+         */
+        @NonNull
+        BigDecimal apply(BigDecimal n1, BigDecimal n2, int scale, RoundingMode roundingMode) {
+            return switch (this) {
+                case ADD -> n1.add(n2);
+                case SUBTRACT -> n1.subtract(n2);
+                case MULTIPLY -> n1.multiply(n2);
+                case DIVIDE -> n1.divide(n2, scale, roundingMode);
+            };
+        }
     }
 
 }
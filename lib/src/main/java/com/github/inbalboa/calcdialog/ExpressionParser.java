@@ -0,0 +1,259 @@
+package com.github.inbalboa.calcdialog;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.text.DecimalFormatSymbols;
+import java.text.ParsePosition;
+
+/**
+ * Parses text into an expression and a current value in a single pass, for pasting.
+ * The text is a list of numbers separated by operators, for example {@code 1,234.5 + 2 × -3}.
+ * Numbers use the decimal and grouping separators of the format symbols, and can start with
+ * a minus sign. Groups after the first one must have the grouping size. If the grouping separator
+ * is a space, the no-break spaces are accepted too, but a regular space separates numbers. Operators are those of {@link Expression.Operator}, or their ASCII equivalent.
+ * Numbers on separate lines with no operator between them are added, so that a column
+ * copied from a spreadsheet can be pasted. A minus sign directly followed by a number at the
+ * start of a line is a negative number, not a subtraction.
+ * Numbers with more integer or fraction digits than could be entered with the buttons are
+ * rejected, leading zeros of the integer part aside. Like for entered numbers, the minus sign
+ * counts as an integer digit.
+ */
+final class ExpressionParser {
+
+    private final char decimalSep;
+    private final char monetaryDecimalSep;
+    private final char groupingSep;
+    private final char minusSign;
+
+    /** Whether the grouping separator is a space, in which case no-break spaces are accepted. */
+    private final boolean groupingIsSpace;
+
+    /** The number of digits in groups after the first one, or 0 if grouping isn't accepted. */
+    private final int groupingSize;
+    private final int maxIntDigits;
+    private final int maxFracDigits;
+
+    ExpressionParser(@NonNull DecimalFormatSymbols symbols) {
+        this(symbols, 3, Integer.MAX_VALUE, Integer.MAX_VALUE);
+    }
+
+    /**
+     * @param symbols       The format symbols of the numbers.
+     * @param groupingSize  The number of digits in groups after the first one,
+     *                      or 0 to reject grouping separators.
+     * @param maxIntDigits  The maximum number of digits in the integer part of a number,
+     *                      including the minus sign.
+     * @param maxFracDigits The maximum number of digits in the fractional part of a number.
+     */
+    ExpressionParser(@NonNull DecimalFormatSymbols symbols, int groupingSize, int maxIntDigits, int maxFracDigits) {
+        this.groupingSize = groupingSize;
+        this.maxIntDigits = maxIntDigits;
+        this.maxFracDigits = maxFracDigits;
+        decimalSep = symbols.getDecimalSeparator();
+        groupingSep = symbols.getGroupingSeparator();
+        // The monetary decimal separator is sometimes the grouping separator of other numbers.
+        char monetarySep = symbols.getMonetaryDecimalSeparator();
+        monetaryDecimalSep = (monetarySep == groupingSep ? decimalSep : monetarySep);
+        minusSign = symbols.getMinusSign();
+        groupingIsSpace = Character.isSpaceChar(groupingSep);
+    }
+
+    /**
+     * Parse text, adding the numbers and operators to an expression. The last number is not
+     * added to the expression if it's not followed by an operator, it's returned instead.
+     * @param text       The text to parse, starting at the index of the parse position.
+     * @param expression The expression to which numbers and operators are added.
+     * @param pos        The parse position. On success, its index is set to the end of the text.
+     *                   On error, its error index is set to the position of the invalid character,
+     *                   of the first digit over the maximum, or of the end of a group with too few
+     *                   digits, and the expression is left
+     *                   partially built.
+     * @return The current value, or null if there's none or if an error occurred.
+     */
+    @Nullable
+    BigDecimal parse(@NonNull CharSequence text, @NonNull Expression expression, @NonNull ParsePosition pos) {
+        int length = text.length();
+        int i = skipSpaces(text, pos.getIndex());
+        if (i == length) {
+            pos.setErrorIndex(i);
+            return null;
+        }
+
+        while (true) {
+            // Parse a number.
+            boolean negative = false;
+            char c = text.charAt(i);
+            if (isMinus(c) && isSignedNumberStart(text, i)) {
+                negative = true;
+                i++;
+            }
+
+            long unscaled = 0;
+            StringBuilder bigDigits = null;
+            int scale = -1;
+            int digitCount = 0;
+            int intDigitCount = 0;
+            int maxNumberIntDigits = negative ? maxIntDigits - 1 : maxIntDigits;
+            // Number of digits in the current group, or -1 before the first grouping separator.
+            int groupDigitCount = -1;
+            for (; i < length; i++) {
+                c = text.charAt(i);
+                int digit = Character.digit(c, 10);
+                if (digit >= 0) {
+                    digitCount++;
+                    if (scale >= 0) {
+                        scale++;
+                    } else {
+                        if (digit != 0 || intDigitCount > 0) {
+                            intDigitCount++;
+                        }
+                        if (groupDigitCount >= 0) {
+                            groupDigitCount++;
+                        }
+                    }
+                    if (intDigitCount > maxNumberIntDigits || scale > maxFracDigits
+                            || groupDigitCount > groupingSize) {
+                        pos.setErrorIndex(i);
+                        return null;
+                    }
+                    if (bigDigits != null) {
+                        bigDigits.append((char) ('0' + digit));
+                    } else if (unscaled <= (Long.MAX_VALUE - digit) / 10) {
+                        unscaled = unscaled * 10 + digit;
+                    } else {
+                        // Too many digits for a long, continue in a string.
+                        bigDigits = new StringBuilder(32).append(unscaled).append((char) ('0' + digit));
+                    }
+                } else if (scale < 0 && (c == decimalSep || c == monetaryDecimalSep)) {
+                    if (!isGroupComplete(groupDigitCount)) {
+                        pos.setErrorIndex(i);
+                        return null;
+                    }
+                    scale = 0;
+                } else if (scale < 0 && digitCount > 0 && isGroupingSep(c)
+                        && i + 1 < length && Character.digit(text.charAt(i + 1), 10) >= 0) {
+                    // Grouping separator between digits of the integer part, only the group size matters.
+                    if (groupingSize == 0 || !isGroupComplete(groupDigitCount)) {
+                        pos.setErrorIndex(i);
+                        return null;
+                    }
+                    groupDigitCount = 0;
+                } else {
+                    break;
+                }
+            }
+            if (scale < 0 && !isGroupComplete(groupDigitCount)) {
+                pos.setErrorIndex(i);
+                return null;
+            }
+            if (digitCount == 0) {
+                pos.setErrorIndex(negative ? i - 1 : i);
+                return null;
+            }
+            if (scale < 0) scale = 0;
+
+            // Parse the operator following the number.
+            int numberEnd = i;
+            i = skipSpaces(text, i);
+            if (i == length) {
+                pos.setIndex(i);
+                return toDecimal(negative, unscaled, bigDigits, scale);
+            }
+            Expression.Operator operator;
+            if (hasLineBreak(text, numberEnd, i) && isSignedNumberStart(text, i)) {
+                // Number on a new line, including a negative one: it's added.
+                operator = Expression.Operator.ADD;
+            } else {
+                operator = getOperator(text.charAt(i));
+                if (operator == null) {
+                    pos.setErrorIndex(i);
+                    return null;
+                }
+                i++;
+            }
+
+            if (bigDigits != null) {
+                expression.addNumber(toDecimal(negative, unscaled, bigDigits, scale));
+            } else {
+                expression.addNumber(negative ? -unscaled : unscaled, scale);
+            }
+            expression.addOperator(operator);
+
+            i = skipSpaces(text, i);
+            if (i == length) {
+                // Expression ends with an operator, there's no current value.
+                pos.setIndex(i);
+                return null;
+            }
+        }
+    }
+
+    private boolean isNumberStart(char c) {
+        return Character.digit(c, 10) >= 0 || c == decimalSep || c == monetaryDecimalSep;
+    }
+
+    private boolean isSignedNumberStart(CharSequence text, int i) {
+        char c = text.charAt(i);
+        if (isMinus(c)) {
+            return i + 1 < text.length() && isNumberStart(text.charAt(i + 1));
+        }
+        return isNumberStart(c);
+    }
+
+    private boolean isMinus(char c) {
+        return c == '-' || c == minusSign || c == Expression.Operator.SUBTRACT.symbol;
+    }
+
+    private boolean isGroupingSep(char c) {
+        return c == groupingSep || groupingIsSpace && (c == '\u00A0' || c == '\u202F');
+    }
+
+    private boolean isGroupComplete(int groupDigitCount) {
+        return groupDigitCount < 0 || groupDigitCount == groupingSize;
+    }
+
+    @Nullable
+    private Expression.Operator getOperator(char c) {
+        if (c == '+' || c == Expression.Operator.ADD.symbol) {
+            return Expression.Operator.ADD;
+        } else if (isMinus(c)) {
+            return Expression.Operator.SUBTRACT;
+        } else if (c == '*' || c == Expression.Operator.MULTIPLY.symbol) {
+            return Expression.Operator.MULTIPLY;
+        } else if (c == '/' || c == Expression.Operator.DIVIDE.symbol) {
+            return Expression.Operator.DIVIDE;
+        }
+        return null;
+    }
+
+    private static int skipSpaces(CharSequence text, int i) {
+        int length = text.length();
+        while (i < length && (Character.isWhitespace(text.charAt(i)) || Character.isSpaceChar(text.charAt(i)))) {
+            i++;
+        }
+        return i;
+    }
+
+    private static boolean hasLineBreak(CharSequence text, int start, int end) {
+        for (int i = start; i < end; i++) {
+            char c = text.charAt(i);
+            if (c == '\n' || c == '\r') {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @NonNull
+    private static BigDecimal toDecimal(boolean negative, long unscaled, @Nullable StringBuilder bigDigits, int scale) {
+        if (bigDigits != null) {
+            BigInteger big = new BigInteger(bigDigits.toString());
+            return new BigDecimal(negative ? big.negate() : big, scale);
+        }
+        return BigDecimal.valueOf(negative ? -unscaled : unscaled, scale);
+    }
+
+}
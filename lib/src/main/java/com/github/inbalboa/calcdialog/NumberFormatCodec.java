@@ -0,0 +1,142 @@
+package com.github.inbalboa.calcdialog;
+
+import androidx.annotation.NonNull;
+
+import java.math.RoundingMode;
+import java.text.DecimalFormat;
+import java.text.DecimalFormatSymbols;
+import java.util.Locale;
+
+/**
+ * Encodes a {@link DecimalFormat} as a compact descriptor, used to parcel the settings
+ * instead of Java serialization. The descriptor contains the pattern, the format symbols,
+ * the prefixes and suffixes, the grouping and digits settings and the rounding mode,
+ * from which an equivalent format is built. Encoding uses {@link StateCodec}.
+ * There's no monetary grouping separator on Android, the grouping separator is used instead.
+ */
+final class NumberFormatCodec {
+    private static final RoundingMode[] ROUNDING_MODES = RoundingMode.values();
+
+    private static final int FLAG_GROUPING_USED = 1;
+    private static final int FLAG_DECIMAL_SEPARATOR_ALWAYS_SHOWN = 1 << 1;
+    private static final int FLAG_PARSE_BIG_DECIMAL = 1 << 2;
+    private static final int FLAG_PARSE_INTEGER_ONLY = 1 << 3;
+
+    private NumberFormatCodec() {}
+
+    @NonNull
+    static byte[] encode(@NonNull DecimalFormat format) {
+        StateCodec.Writer writer = new StateCodec.Writer(128);
+        writer.writeString(format.toPattern());
+
+        DecimalFormatSymbols symbols = format.getDecimalFormatSymbols();
+        writer.writeInt(symbols.getZeroDigit());
+        writer.writeInt(symbols.getGroupingSeparator());
+        writer.writeInt(symbols.getDecimalSeparator());
+        writer.writeInt(symbols.getMonetaryDecimalSeparator());
+        writer.writeInt(symbols.getPerMill());
+        writer.writeInt(symbols.getPercent());
+        writer.writeInt(symbols.getDigit());
+        writer.writeInt(symbols.getPatternSeparator());
+        writer.writeInt(symbols.getMinusSign());
+        writer.writeString(symbols.getExponentSeparator());
+        writer.writeString(symbols.getInfinity());
+        writer.writeString(symbols.getNaN());
+        writer.writeString(symbols.getInternationalCurrencySymbol());
+        writer.writeString(symbols.getCurrencySymbol());
+
+        writer.writeString(format.getPositivePrefix());
+        writer.writeString(format.getPositiveSuffix());
+        writer.writeString(format.getNegativePrefix());
+        writer.writeString(format.getNegativeSuffix());
+
+        int flags = 0;
+        if (format.isGroupingUsed()) flags |= FLAG_GROUPING_USED;
+        if (format.isDecimalSeparatorAlwaysShown()) flags |= FLAG_DECIMAL_SEPARATOR_ALWAYS_SHOWN;
+        if (format.isParseBigDecimal()) flags |= FLAG_PARSE_BIG_DECIMAL;
+        if (format.isParseIntegerOnly()) flags |= FLAG_PARSE_INTEGER_ONLY;
+        writer.writeByte(flags);
+        writer.writeInt(format.getGroupingSize());
+        writer.writeInt(format.getMultiplier());
+        writer.writeInt(format.getMinimumIntegerDigits());
+        writer.writeInt(format.getMaximumIntegerDigits());
+        writer.writeInt(format.getMinimumFractionDigits());
+        writer.writeInt(format.getMaximumFractionDigits());
+        writer.writeInt(format.getRoundingMode().ordinal());
+
+        return writer.toByteArray();
+    }
+
+    /**
+     * Build a format from a descriptor created by {@link #encode(DecimalFormat)}.
+     * @throws IllegalArgumentException if the descriptor is invalid.
+     */
+    @NonNull
+    static DecimalFormat decode(@NonNull byte[] descriptor) {
+        StateCodec.Reader reader = new StateCodec.Reader(descriptor);
+        String pattern = reader.readString();
+
+        DecimalFormatSymbols symbols = new DecimalFormatSymbols(Locale.ROOT);
+        symbols.setZeroDigit(readChar(reader));
+        symbols.setGroupingSeparator(readChar(reader));
+        symbols.setDecimalSeparator(readChar(reader));
+        symbols.setMonetaryDecimalSeparator(readChar(reader));
+        symbols.setPerMill(readChar(reader));
+        symbols.setPercent(readChar(reader));
+        symbols.setDigit(readChar(reader));
+        symbols.setPatternSeparator(readChar(reader));
+        symbols.setMinusSign(readChar(reader));
+        symbols.setExponentSeparator(reader.readString());
+        symbols.setInfinity(reader.readString());
+        symbols.setNaN(reader.readString());
+        // Setting the international symbol also changes the currency symbol, so set it first.
+        symbols.setInternationalCurrencySymbol(reader.readString());
+        symbols.setCurrencySymbol(reader.readString());
+
+        // Prefixes and suffixes are usually those of the pattern. Only set them if they were
+        // changed, since setting them replaces special characters like the currency sign.
+        DecimalFormat format = new DecimalFormat(pattern, symbols);
+        String posPrefix = reader.readString();
+        String posSuffix = reader.readString();
+        String negPrefix = reader.readString();
+        String negSuffix = reader.readString();
+        if (!posPrefix.equals(format.getPositivePrefix())) format.setPositivePrefix(posPrefix);
+        if (!posSuffix.equals(format.getPositiveSuffix())) format.setPositiveSuffix(posSuffix);
+        if (!negPrefix.equals(format.getNegativePrefix())) format.setNegativePrefix(negPrefix);
+        if (!negSuffix.equals(format.getNegativeSuffix())) format.setNegativeSuffix(negSuffix);
+
+        int flags = reader.readByte();
+        format.setGroupingUsed((flags & FLAG_GROUPING_USED) != 0);
+        format.setDecimalSeparatorAlwaysShown((flags & FLAG_DECIMAL_SEPARATOR_ALWAYS_SHOWN) != 0);
+        format.setParseBigDecimal((flags & FLAG_PARSE_BIG_DECIMAL) != 0);
+        format.setParseIntegerOnly((flags & FLAG_PARSE_INTEGER_ONLY) != 0);
+        format.setGroupingSize(reader.readInt());
+        format.setMultiplier(reader.readInt());
+        int minInt = reader.readInt();
+        int maxInt = reader.readInt();
+        int minFrac = reader.readInt();
+        int maxFrac = reader.readInt();
+        // Set maximums first since setting a minimum above the maximum also changes the maximum.
+        format.setMaximumIntegerDigits(maxInt);
+        format.setMinimumIntegerDigits(minInt);
+        format.setMaximumFractionDigits(maxFrac);
+        format.setMinimumFractionDigits(minFrac);
+
+        int roundingMode = reader.readInt();
+        if (roundingMode < 0 || roundingMode >= ROUNDING_MODES.length) {
+            throw new IllegalArgumentException("Invalid encoded rounding mode");
+        }
+        format.setRoundingMode(ROUNDING_MODES[roundingMode]);
+
+        return format;
+    }
+
+    private static char readChar(StateCodec.Reader reader) {
+        int c = reader.readInt();
+        if (c < Character.MIN_VALUE || c > Character.MAX_VALUE) {
+            throw new IllegalArgumentException("Invalid encoded character");
+        }
+        return (char) c;
+    }
+
+}
@@ -0,0 +1,101 @@
+package com.github.inbalboa.calcdialog;
+
+import android.content.Context;
+import android.view.ContextThemeWrapper;
+import android.view.View;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.asynclayoutinflater.view.AsyncLayoutInflater;
+import androidx.fragment.app.FragmentActivity;
+import androidx.lifecycle.Lifecycle;
+import androidx.lifecycle.LifecycleEventObserver;
+import androidx.lifecycle.LifecycleOwner;
+
+/**
+ * Calculator layout inflated ahead of time on a background thread,
+ * see {@link CalcDialog#prewarm(FragmentActivity)}. A single layout is kept, for one activity
+ * and dialog style, and it's released when the activity is destroyed.
+ * Must only be used on the main thread.
+ */
+final class PrewarmedLayout {
+
+    @Nullable
+    private static FragmentActivity activity;
+    private static int style;
+
+    /** The inflated layout, null if not inflated yet or already taken. */
+    @Nullable
+    private static View layout;
+
+    private static boolean inflating;
+
+    /** Incremented when the layout is released, so that an older inflation is ignored. */
+    private static int generation;
+
+    private static final LifecycleEventObserver destroyObserver = new LifecycleEventObserver() {
+        @Override
+        public void onStateChanged(@NonNull LifecycleOwner source, @NonNull Lifecycle.Event event) {
+            if (event == Lifecycle.Event.ON_DESTROY && source == activity) {
+                release();
+            }
+        }
+    };
+
+    private PrewarmedLayout() {}
+
+    /**
+     * Start inflating the layout for an activity and a dialog style, unless it's already
+     * inflated or being inflated. A layout inflated for another activity or style is released.
+     */
+    static void inflate(@NonNull FragmentActivity activity, int style) {
+        if (activity == PrewarmedLayout.activity && style == PrewarmedLayout.style
+                && (layout != null || inflating)) {
+            return;
+        }
+        release();
+        if (activity.getLifecycle().getCurrentState() == Lifecycle.State.DESTROYED) {
+            return;
+        }
+
+        PrewarmedLayout.activity = activity;
+        PrewarmedLayout.style = style;
+        activity.getLifecycle().addObserver(destroyObserver);
+
+        inflating = true;
+        int gen = generation;
+        Context context = new ContextThemeWrapper(activity, style);
+        new AsyncLayoutInflater(context).inflate(R.layout.dialog_calc, null, (view, resid, parent) -> {
+            if (gen == generation) {
+                layout = view;
+                inflating = false;
+            }
+        });
+    }
+
+    /**
+     * Take the inflated layout if there's one for an activity and a dialog style.
+     * The layout can only be taken once.
+     * @return The layout, or null if there's none.
+     */
+    @Nullable
+    static View take(@Nullable Context activity, int style) {
+        if (layout == null || activity != PrewarmedLayout.activity || style != PrewarmedLayout.style) {
+            return null;
+        }
+        View view = layout;
+        layout = null;
+        return view;
+    }
+
+    private static void release() {
+        if (activity != null) {
+            activity.getLifecycle().removeObserver(destroyObserver);
+            activity = null;
+        }
+        layout = null;
+        inflating = false;
+        generation++;
+    }
+
+}
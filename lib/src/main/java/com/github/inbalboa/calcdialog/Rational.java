@@ -0,0 +1,168 @@
+package com.github.inbalboa.calcdialog;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.math.RoundingMode;
+
+/**
+ * Mutable rational number used to evaluate expressions without rounding division results.
+ * Numbers are kept as exact decimals until a division is involved, then as a numerator
+ * and a positive denominator. The fraction isn't reduced after each operation, only when
+ * the denominator gets large, since finding the GCD costs more than a few multiplications.
+ */
+final class Rational {
+    /** Denominator bit length above which the fraction is first reduced. */
+    private static final int REDUCE_BIT_LENGTH = 128;
+
+    private static final BigInteger[] POWERS_OF_TEN = new BigInteger[32];
+
+    static {
+        POWERS_OF_TEN[0] = BigInteger.ONE;
+        for (int i = 1; i < POWERS_OF_TEN.length; i++) {
+            POWERS_OF_TEN[i] = POWERS_OF_TEN[i - 1].multiply(BigInteger.TEN);
+        }
+    }
+
+    /** The value if no division was involved in computing it, null otherwise. */
+    @Nullable
+    private BigDecimal decimal = BigDecimal.ZERO;
+
+    // The value as a fraction, if not a decimal.
+    @NonNull
+    private BigInteger num = BigInteger.ZERO;
+    @NonNull
+    private BigInteger den = BigInteger.ONE;
+
+    /**
+     * Denominator bit length above which the fraction is reduced. It's tried again once the
+     * denominator is twice as long, or four times as long if it couldn't be reduced to half
+     * its length, since the GCD of large numbers is slow and numbers entered in a calculator
+     * rarely have common factors.
+     */
+    private int reduceBitLength = REDUCE_BIT_LENGTH;
+
+    void set(@NonNull BigDecimal value) {
+        decimal = value;
+    }
+
+    void set(long unscaled, int scale) {
+        decimal = BigDecimal.valueOf(unscaled, scale);
+    }
+
+    void set(@NonNull Rational value) {
+        decimal = value.decimal;
+        num = value.num;
+        den = value.den;
+        reduceBitLength = value.reduceBitLength;
+    }
+
+    /**
+     * Apply an operator with this number as left operand and store the result in this number.
+     * @param op    The operator.
+     * @param other The right operand.
+     * @throws ArithmeticException if a division by zero occurred.
+     */
+    void apply(@NonNull Expression.Operator op, @NonNull Rational other) {
+        if (decimal != null && other.decimal != null && op != Expression.Operator.DIVIDE) {
+            // Exact decimal result.
+            decimal = switch (op) {
+                case ADD -> decimal.add(other.decimal);
+                case SUBTRACT -> decimal.subtract(other.decimal);
+                default -> decimal.multiply(other.decimal);
+            };
+            return;
+        }
+
+        if (decimal != null) {
+            num = numerator(decimal);
+            den = denominator(decimal);
+            decimal = null;
+            reduceBitLength = REDUCE_BIT_LENGTH;
+        }
+        BigInteger n2 = other.decimal != null ? numerator(other.decimal) : other.num;
+        BigInteger d2 = other.decimal != null ? denominator(other.decimal) : other.den;
+        switch (op) {
+            case ADD, SUBTRACT -> {
+                if (op == Expression.Operator.SUBTRACT) {
+                    n2 = n2.negate();
+                }
+                if (den.equals(d2)) {
+                    num = num.add(n2);
+                } else {
+                    num = num.multiply(d2).add(n2.multiply(den));
+                    den = den.multiply(d2);
+                }
+            }
+            case MULTIPLY -> {
+                num = num.multiply(n2);
+                den = den.multiply(d2);
+            }
+            case DIVIDE -> {
+                if (n2.signum() == 0) {
+                    throw new ArithmeticException("Division by zero");
+                }
+                num = num.multiply(d2);
+                den = den.multiply(n2);
+                if (den.signum() < 0) {
+                    num = num.negate();
+                    den = den.negate();
+                }
+            }
+        }
+        if (other.decimal == null) {
+            reduceBitLength = Math.max(reduceBitLength, other.reduceBitLength);
+        }
+        if (den.bitLength() > reduceBitLength) {
+            reduce();
+        }
+    }
+
+    private void reduce() {
+        int bitLength = den.bitLength();
+        BigInteger gcd = num.gcd(den);
+        if (!gcd.equals(BigInteger.ONE)) {
+            num = num.divide(gcd);
+            den = den.divide(gcd);
+        }
+        int reducedBitLength = den.bitLength();
+        int factor = (reducedBitLength > bitLength / 2) ? 4 : 2;
+        reduceBitLength = Math.max(REDUCE_BIT_LENGTH, factor * reducedBitLength);
+    }
+
+    /**
+     * Convert this number to a decimal. If a division was involved, the value is divided once
+     * and rounded to a scale, otherwise it's exact. Trailing zeroes are stripped.
+     * @param scale        Scale used if the number has a division.
+     * @param roundingMode Rounding mode used if the number has a division.
+     */
+    @NonNull
+    BigDecimal toStrippedBigDecimal(int scale, @NonNull RoundingMode roundingMode) {
+        if (decimal != null) {
+            return decimal.stripTrailingZeros();
+        }
+        BigDecimal value = new BigDecimal(num);
+        if (!den.equals(BigInteger.ONE)) {
+            value = value.divide(new BigDecimal(den), scale, roundingMode);
+        }
+        return value.stripTrailingZeros();
+    }
+
+    private static BigInteger numerator(BigDecimal value) {
+        int scale = value.scale();
+        BigInteger unscaled = value.unscaledValue();
+        return scale >= 0 ? unscaled : unscaled.multiply(powerOfTen(-scale));
+    }
+
+    private static BigInteger denominator(BigDecimal value) {
+        int scale = value.scale();
+        return scale > 0 ? powerOfTen(scale) : BigInteger.ONE;
+    }
+
+    private static BigInteger powerOfTen(int n) {
+        return n < POWERS_OF_TEN.length ? POWERS_OF_TEN[n] : BigInteger.TEN.pow(n);
+    }
+
+}
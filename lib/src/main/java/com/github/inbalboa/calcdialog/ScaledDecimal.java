@@ -0,0 +1,231 @@
+package com.github.inbalboa.calcdialog;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.math.BigDecimal;
+import java.math.MathContext;
+import java.math.RoundingMode;
+
+/**
+ * Mutable decimal number stored as an unscaled long value and a scale, like a BigDecimal
+ * but without allocating a new object for each operation. If the value doesn't fit in
+ * a long or an operation overflows, the number is stored as a BigDecimal instead.
+ * All operations give the same results as the equivalent BigDecimal operations.
+ */
+final class ScaledDecimal {
+    private static final long[] POWERS_OF_TEN = {
+            1L, 10L, 100L, 1_000L, 10_000L, 100_000L, 1_000_000L, 10_000_000L,
+            100_000_000L, 1_000_000_000L, 10_000_000_000L, 100_000_000_000L,
+            1_000_000_000_000L, 10_000_000_000_000L, 100_000_000_000_000L,
+            1_000_000_000_000_000L, 10_000_000_000_000_000L, 100_000_000_000_000_000L,
+            1_000_000_000_000_000_000L,
+    };
+
+    private long unscaled;
+    private int scale;
+
+    /** The value if it isn't stored as a long, null otherwise. */
+    @Nullable
+    private BigDecimal big;
+
+    void set(@NonNull BigDecimal value) {
+        if (value.precision() < 19) {
+            unscaled = value.unscaledValue().longValue();
+            scale = value.scale();
+            big = null;
+        } else {
+            big = value;
+        }
+    }
+
+    void set(long unscaled, int scale) {
+        this.unscaled = unscaled;
+        this.scale = scale;
+        big = null;
+    }
+
+    void set(@NonNull ScaledDecimal value) {
+        unscaled = value.unscaled;
+        scale = value.scale;
+        big = value.big;
+    }
+
+    /**
+     * Apply an operator with this number as left operand and store the result in this number.
+     * @param op           The operator.
+     * @param other        The right operand.
+     * @param divScale     Scale used for division.
+     * @param roundingMode Rounding mode used for division.
+     * @param mathContext  Precision to which the result is rounded, null for none.
+     * @throws ArithmeticException if a division by zero occurred.
+     */
+    void apply(@NonNull Expression.Operator op, @NonNull ScaledDecimal other,
+               int divScale, @NonNull RoundingMode roundingMode, @Nullable MathContext mathContext) {
+        boolean done = false;
+        if (big == null && other.big == null) {
+            done = switch (op) {
+                case ADD -> add(other, false);
+                case SUBTRACT -> add(other, true);
+                case MULTIPLY -> multiply(other);
+                case DIVIDE -> divide(other, divScale, roundingMode);
+            };
+        }
+        if (!done) {
+            big = op.apply(toBigDecimal(), other.toBigDecimal(), divScale, roundingMode);
+        }
+        if (mathContext != null) {
+            round(mathContext);
+        }
+    }
+
+    /**
+     * Round this number to a precision, as {@link BigDecimal#round(MathContext)}.
+     * If the result fits in a long, it's stored as a long again.
+     */
+    private void round(@NonNull MathContext mathContext) {
+        int precision = mathContext.getPrecision();
+        if (precision == 0) {
+            return;
+        } else if (big != null) {
+            if (big.precision() > precision) {
+                set(big.round(mathContext));
+            }
+        } else if (precision < POWERS_OF_TEN.length && (unscaled >= POWERS_OF_TEN[precision]
+                || unscaled <= -POWERS_OF_TEN[precision])) {
+            set(BigDecimal.valueOf(unscaled, scale).round(mathContext));
+        }
+    }
+
+    // Overflows are checked without exceptions, which are slow to create, since they are
+    // frequent when results are rounded to a precision and brought back to a long.
+
+    private boolean add(ScaledDecimal other, boolean negate) {
+        long u1 = unscaled;
+        long u2 = other.unscaled;
+        int s = Math.max(scale, other.scale);
+        if (scale < s) {
+            long p = powerOfTen((long) s - scale);
+            if (p == 0 || !canMultiply(u1, p)) return false;
+            u1 *= p;
+        } else if (other.scale < s) {
+            long p = powerOfTen((long) s - other.scale);
+            if (p == 0 || !canMultiply(u2, p)) return false;
+            u2 *= p;
+        }
+        long u = negate ? u1 - u2 : u1 + u2;
+        if (negate ? ((u1 ^ u2) & (u1 ^ u)) < 0 : ((u1 ^ u) & (u2 ^ u)) < 0) {
+            return false;
+        }
+        unscaled = u;
+        scale = s;
+        return true;
+    }
+
+    private boolean multiply(ScaledDecimal other) {
+        long s = (long) scale + other.scale;
+        if (!canMultiply(unscaled, other.unscaled) || s != (int) s) {
+            return false;
+        }
+        unscaled *= other.unscaled;
+        scale = (int) s;
+        return true;
+    }
+
+    private boolean divide(ScaledDecimal other, int divScale, RoundingMode roundingMode) {
+        // Result is (u1 / u2) * 10^(s2 - s1) with a scale of divScale, so the unscaled
+        // result is u1 * 10^(divScale - s1 + s2) / u2, rounded.
+        long num = unscaled;
+        long den = other.unscaled;
+        long exponent = (long) divScale - scale + other.scale;
+        if (den == 0 || roundingMode == RoundingMode.UNNECESSARY) {
+            // Let BigDecimal throw the appropriate exception.
+            return false;
+        }
+        if (exponent >= 0) {
+            long p = powerOfTen(exponent);
+            if (p == 0 || !canMultiply(num, p)) return false;
+            num *= p;
+        } else {
+            long p = powerOfTen(-exponent);
+            if (p == 0 || !canMultiply(den, p)) return false;
+            den *= p;
+        }
+        if (num == Long.MIN_VALUE || den == Long.MIN_VALUE) {
+            return false;
+        }
+
+        long quotient = num / den;
+        long remainder = num % den;
+        if (remainder != 0) {
+            int sign = Long.signum(num) * Long.signum(den);
+            long absRem = Math.abs(remainder);
+            int cmpHalf = Long.compare(absRem, Math.abs(den) - absRem);
+            boolean increment = switch (roundingMode) {
+                case UP -> true;
+                case DOWN -> false;
+                case CEILING -> sign > 0;
+                case FLOOR -> sign < 0;
+                case HALF_UP -> cmpHalf >= 0;
+                case HALF_DOWN -> cmpHalf > 0;
+                case HALF_EVEN -> cmpHalf > 0 || cmpHalf == 0 && (quotient & 1) != 0;
+                case UNNECESSARY -> throw new IllegalStateException();
+            };
+            if (increment) {
+                quotient += sign;
+            }
+        }
+        unscaled = quotient;
+        scale = divScale;
+        return true;
+    }
+
+    /**
+     * @return 10^n, or 0 if it doesn't fit in a long.
+     */
+    private static long powerOfTen(long n) {
+        return n < POWERS_OF_TEN.length ? POWERS_OF_TEN[(int) n] : 0;
+    }
+
+    /**
+     * @return Whether the product of two numbers fits in a long, as checked by
+     * {@link Math#multiplyExact(long, long)}.
+     */
+    private static boolean canMultiply(long x, long y) {
+        if (((Math.abs(x) | Math.abs(y)) >>> 31) == 0) return true;
+        long r = x * y;
+        return (y == 0 || r / y == x) && (x != Long.MIN_VALUE || y != -1);
+    }
+
+    @NonNull
+    BigDecimal toBigDecimal() {
+        if (big != null) {
+            return big;
+        }
+        return BigDecimal.valueOf(unscaled, scale);
+    }
+
+    /**
+     * @return The value with trailing zeroes stripped, as {@link BigDecimal#stripTrailingZeros()}.
+     */
+    @NonNull
+    BigDecimal toStrippedBigDecimal() {
+        if (big != null) {
+            return big.stripTrailingZeros();
+        } else if (unscaled == 0) {
+            return BigDecimal.ZERO;
+        }
+        long u = unscaled;
+        int s = scale;
+        while (u % 10 == 0) {
+            if (s == Integer.MIN_VALUE) {
+                // Scale underflow, let BigDecimal throw.
+                return BigDecimal.valueOf(unscaled, scale).stripTrailingZeros();
+            }
+            u /= 10;
+            s--;
+        }
+        return BigDecimal.valueOf(u, s);
+    }
+
+}
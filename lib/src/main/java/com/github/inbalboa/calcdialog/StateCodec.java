@@ -0,0 +1,190 @@
+package com.github.inbalboa.calcdialog;
+
+import androidx.annotation.NonNull;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Compact binary encoding used to save the calculator state, instead of Java serialization.
+ * Integers are written as zigzag variable length integers, so that small values of either
+ * sign take a single byte. Decimal numbers are written as their scale followed by their
+ * unscaled value, either as a variable length integer or as two's complement bytes if
+ * it doesn't fit in a long.
+ */
+final class StateCodec {
+
+    private StateCodec() {}
+
+    private static long zigzag(int value) {
+        return ((value << 1) ^ (value >> 31)) & 0xFFFFFFFFL;
+    }
+
+    private static int unzigzag(long value) {
+        return (int) (value >>> 1) ^ -(int) (value & 1);
+    }
+
+    static final class Writer {
+        private byte[] buf;
+        private int pos;
+
+        Writer() {
+            this(64);
+        }
+
+        Writer(int capacity) {
+            buf = new byte[capacity];
+        }
+
+        void writeByte(int b) {
+            ensureCapacity(1);
+            buf[pos++] = (byte) b;
+        }
+
+        void writeBytes(@NonNull byte[] bytes, int length) {
+            ensureCapacity(length);
+            System.arraycopy(bytes, 0, buf, pos, length);
+            pos += length;
+        }
+
+        void writeInt(int value) {
+            writeVarLong(zigzag(value));
+        }
+
+        void writeLong(long value) {
+            writeVarLong((value << 1) ^ (value >> 63));
+        }
+
+        void writeString(@NonNull String value) {
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            writeInt(bytes.length);
+            writeBytes(bytes, bytes.length);
+        }
+
+        /**
+         * Write a decimal number stored as an unscaled long value and a scale.
+         */
+        void writeDecimal(long unscaled, int scale) {
+            writeDecimalHeader(scale, false);
+            writeLong(unscaled);
+        }
+
+        void writeDecimal(@NonNull BigDecimal value) {
+            BigInteger unscaled = value.unscaledValue();
+            if (unscaled.bitLength() < Long.SIZE) {
+                writeDecimal(unscaled.longValue(), value.scale());
+            } else {
+                writeDecimalHeader(value.scale(), true);
+                byte[] bytes = unscaled.toByteArray();
+                writeInt(bytes.length);
+                writeBytes(bytes, bytes.length);
+            }
+        }
+
+        private void writeDecimalHeader(int scale, boolean big) {
+            // Zigzag encoded scale, with the lowest bit indicating a big unscaled value.
+            writeVarLong(zigzag(scale) << 1 | (big ? 1 : 0));
+        }
+
+        private void writeVarLong(long value) {
+            ensureCapacity(10);
+            while ((value & ~0x7FL) != 0) {
+                buf[pos++] = (byte) (value & 0x7F | 0x80);
+                value >>>= 7;
+            }
+            buf[pos++] = (byte) value;
+        }
+
+        private void ensureCapacity(int size) {
+            if (pos + size > buf.length) {
+                buf = Arrays.copyOf(buf, Math.max(buf.length * 2, pos + size));
+            }
+        }
+
+        @NonNull
+        byte[] toByteArray() {
+            return Arrays.copyOf(buf, pos);
+        }
+    }
+
+    static final class Reader {
+        private final byte[] buf;
+        private int pos;
+
+        Reader(@NonNull byte[] buf) {
+            this.buf = buf;
+        }
+
+        int readByte() {
+            checkAvailable(1);
+            return buf[pos++];
+        }
+
+        @NonNull
+        byte[] readBytes(int length) {
+            checkAvailable(length);
+            byte[] bytes = Arrays.copyOfRange(buf, pos, pos + length);
+            pos += length;
+            return bytes;
+        }
+
+        int readInt() {
+            return unzigzag(readVarLong());
+        }
+
+        long readLong() {
+            long zigzag = readVarLong();
+            return (zigzag >>> 1) ^ -(zigzag & 1);
+        }
+
+        @NonNull
+        String readString() {
+            int length = readInt();
+            checkAvailable(length);
+            String value = new String(buf, pos, length, StandardCharsets.UTF_8);
+            pos += length;
+            return value;
+        }
+
+        @NonNull
+        BigDecimal readDecimal() {
+            long header = readVarLong();
+            int scale = unzigzag(header >>> 1);
+            if ((header & 1) == 0) {
+                return BigDecimal.valueOf(readLong(), scale);
+            } else {
+                int length = readInt();
+                if (length <= 0) {
+                    throw new IllegalArgumentException("Invalid encoded state");
+                }
+                return new BigDecimal(new BigInteger(readBytes(length)), scale);
+            }
+        }
+
+        boolean hasRemaining() {
+            return pos < buf.length;
+        }
+
+        private long readVarLong() {
+            long value = 0;
+            for (int shift = 0; shift < Long.SIZE; shift += 7) {
+                checkAvailable(1);
+                byte b = buf[pos++];
+                value |= (long) (b & 0x7F) << shift;
+                if (b >= 0) {
+                    return value;
+                }
+            }
+            throw new IllegalArgumentException("Invalid encoded state");
+        }
+
+        private void checkAvailable(int size) {
+            if (size < 0 || size > buf.length - pos) {
+                throw new IllegalArgumentException("Invalid encoded state");
+            }
+        }
+    }
+
+}
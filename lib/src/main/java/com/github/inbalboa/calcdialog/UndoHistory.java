@@ -0,0 +1,337 @@
+package com.github.inbalboa.calcdialog;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Objects;
+
+/**
+ * Unlimited undo and redo history of the calculator state. States are immutable and stacked in
+ * linked lists, and the terms of their expression are kept as a linked list from the last term,
+ * shared by all states whose expression starts with the same terms. This way, saving a state
+ * takes constant time and memory, whatever the length of the expression.
+ */
+final class UndoHistory {
+
+    private static final Expression.Operator[] OPERATORS = Expression.Operator.values();
+
+    /**
+     * A number or operator of an expression, with the terms before it. Numbers are at even
+     * indexes and operators at odd indexes, as in {@link Expression#takeChangedFrom()}.
+     */
+    static final class Term {
+        @Nullable
+        final Term previous;
+        final int index;
+        @Nullable
+        final BigDecimal number;
+        @Nullable
+        final Expression.Operator operator;
+
+        private Term(@Nullable Term previous, @Nullable BigDecimal number,
+                     @Nullable Expression.Operator operator) {
+            this.previous = previous;
+            this.index = previous == null ? 0 : previous.index + 1;
+            this.number = number;
+            this.operator = operator;
+        }
+
+        /**
+         * Add the terms of an expression after some of its first terms.
+         * @param last The last of the first terms, null for none.
+         * @return The last term of the expression.
+         */
+        @Nullable
+        static Term append(@Nullable Term last, @NonNull Expression expr) {
+            int count = expr.getNumberCount() + expr.getOperatorCount();
+            for (int i = index(last) + 1; i < count; i++) {
+                last = (i % 2 == 0) ? new Term(last, expr.getNumber(i / 2), null)
+                        : new Term(last, null, expr.getOperator(i / 2));
+            }
+            return last;
+        }
+
+        /**
+         * Change an expression from some terms to others, removing and adding only the terms
+         * after the ones they have in common.
+         * @param expr    The expression, with the current terms.
+         * @param current The current terms of the expression.
+         * @param target  The terms to set.
+         */
+        static void restore(@NonNull Expression expr, @Nullable Term current, @Nullable Term target) {
+            Term common = common(current, target);
+            int count = index(common) + 1;
+            while (expr.getNumberCount() + expr.getOperatorCount() > count) {
+                if (expr.getNumberCount() > expr.getOperatorCount()) {
+                    expr.removeLastNumber();
+                } else {
+                    expr.removeLastOperator();
+                }
+            }
+            ArrayList<Term> added = new ArrayList<>();
+            for (Term t = target; t != common; t = t.previous) {
+                added.add(t);
+            }
+            for (int i = added.size() - 1; i >= 0; i--) {
+                Term t = added.get(i);
+                if (t.number != null) {
+                    expr.addNumber(t.number);
+                } else {
+                    expr.addOperator(t.operator);
+                }
+            }
+        }
+
+        /**
+         * @return The index of a term, or -1 for no term.
+         */
+        static int index(@Nullable Term term) {
+            return term == null ? -1 : term.index;
+        }
+
+        /**
+         * @return The last term common to two lists of terms, null if there's none.
+         */
+        @Nullable
+        static Term common(@Nullable Term a, @Nullable Term b) {
+            while (index(a) > index(b)) a = a.previous;
+            while (index(b) > index(a)) b = b.previous;
+            while (a != b) {
+                a = a.previous;
+                b = b.previous;
+            }
+            return a;
+        }
+    }
+
+    /**
+     * A saved calculator state, see {@link CalcPresenter}.
+     */
+    static final class State {
+        @Nullable
+        final Term terms;
+        @Nullable
+        final BigDecimal currentValue;
+        @Nullable
+        final BigDecimal resultValue;
+        final int currentValueScale;
+        final int errorCode;
+        final int flags;
+
+        /** The next state in the undo or redo stack. */
+        @Nullable
+        final State next;
+
+        State(@Nullable Term terms, @Nullable BigDecimal currentValue,
+              @Nullable BigDecimal resultValue, int currentValueScale, int errorCode, int flags) {
+            this(terms, currentValue, resultValue, currentValueScale, errorCode, flags, null);
+        }
+
+        private State(@Nullable Term terms, @Nullable BigDecimal currentValue,
+                      @Nullable BigDecimal resultValue, int currentValueScale, int errorCode,
+                      int flags, @Nullable State next) {
+            this.terms = terms;
+            this.currentValue = currentValue;
+            this.resultValue = resultValue;
+            this.currentValueScale = currentValueScale;
+            this.errorCode = errorCode;
+            this.flags = flags;
+            this.next = next;
+        }
+
+        @NonNull
+        State withNext(@Nullable State next) {
+            return new State(terms, currentValue, resultValue, currentValueScale, errorCode, flags, next);
+        }
+
+        boolean isSameAs(@NonNull State other) {
+            return terms == other.terms
+                    && Objects.equals(currentValue, other.currentValue)
+                    && Objects.equals(resultValue, other.resultValue)
+                    && currentValueScale == other.currentValueScale
+                    && errorCode == other.errorCode
+                    && flags == other.flags;
+        }
+    }
+
+    @Nullable
+    private State undoStack;
+    @Nullable
+    private State redoStack;
+
+    /**
+     * Save the state before an input that changed it. The redo history is cleared.
+     */
+    void push(@NonNull State state) {
+        redoStack = null;
+        if (undoStack == null || !undoStack.isSameAs(state)) {
+            undoStack = state.withNext(undoStack);
+        }
+    }
+
+    /**
+     * Get the last saved state different from the current one, and save the current state
+     * in the redo history.
+     * @return The state to restore, null if there's none.
+     */
+    @Nullable
+    State undo(@NonNull State current) {
+        while (undoStack != null && undoStack.isSameAs(current)) {
+            undoStack = undoStack.next;
+        }
+        if (undoStack == null) return null;
+        State state = undoStack;
+        undoStack = state.next;
+        redoStack = current.withNext(redoStack);
+        return state;
+    }
+
+    /**
+     * Get the last undone state, and save the current state in the undo history.
+     * @return The state to restore, null if there's none.
+     */
+    @Nullable
+    State redo(@NonNull State current) {
+        if (redoStack == null) return null;
+        State state = redoStack;
+        redoStack = state.next;
+        undoStack = current.withNext(undoStack);
+        return state;
+    }
+
+    void clear() {
+        undoStack = null;
+        redoStack = null;
+    }
+
+    /**
+     * @return The number of states in the larger of the undo and redo stacks.
+     */
+    int getSize() {
+        return Math.max(getSize(undoStack), getSize(redoStack));
+    }
+
+    private static int getSize(@Nullable State stack) {
+        int size = 0;
+        for (State state = stack; state != null; state = state.next) {
+            size++;
+        }
+        return size;
+    }
+
+    /**
+     * Encode the undo and redo states, each one relative to the one before it, starting from
+     * the current state. Only the terms removed and added from a state to the next are written,
+     * so a state usually takes a few bytes.
+     * @param current The terms of the current expression.
+     * @param maxSize The maximum number of states to encode in each stack.
+     */
+    void encode(@NonNull StateCodec.Writer writer, @Nullable Term current, int maxSize) {
+        encodeStack(writer, undoStack, current, maxSize);
+        encodeStack(writer, redoStack, current, maxSize);
+    }
+
+    private static void encodeStack(@NonNull StateCodec.Writer writer, @Nullable State stack,
+                                    @Nullable Term current, int maxSize) {
+        int size = 0;
+        for (State state = stack; state != null && size < maxSize; state = state.next) {
+            size++;
+        }
+        writer.writeInt(size);
+
+        Term ref = current;
+        ArrayList<Term> added = new ArrayList<>();
+        State state = stack;
+        for (int i = 0; i < size; i++) {
+            Term common = Term.common(ref, state.terms);
+            writer.writeInt(Term.index(ref) - Term.index(common));
+            for (Term t = state.terms; t != common; t = t.previous) {
+                added.add(t);
+            }
+            writer.writeInt(added.size());
+            for (int j = added.size() - 1; j >= 0; j--) {
+                Term t = added.get(j);
+                if (t.number != null) {
+                    writer.writeDecimal(t.number);
+                } else {
+                    writer.writeByte(t.operator.ordinal());
+                }
+            }
+            added.clear();
+
+            writer.writeInt(state.flags);
+            writer.writeInt(state.currentValueScale);
+            writer.writeInt(state.errorCode);
+            writer.writeByte((state.currentValue != null ? 1 : 0) | (state.resultValue != null ? 2 : 0));
+            if (state.currentValue != null) {
+                writer.writeDecimal(state.currentValue);
+            }
+            if (state.resultValue != null) {
+                writer.writeDecimal(state.resultValue);
+            }
+
+            ref = state.terms;
+            state = state.next;
+        }
+    }
+
+    /**
+     * Read the states written by {@link #encode(StateCodec.Writer, Term, int)}, replacing
+     * the current ones.
+     * @param current The terms of the current expression.
+     * @throws IllegalArgumentException if the encoded history is invalid.
+     */
+    void decode(@NonNull StateCodec.Reader reader, @Nullable Term current) {
+        undoStack = decodeStack(reader, current);
+        redoStack = decodeStack(reader, current);
+    }
+
+    @Nullable
+    private static State decodeStack(@NonNull StateCodec.Reader reader, @Nullable Term current) {
+        int size = reader.readInt();
+        if (size < 0) {
+            throw new IllegalArgumentException("Invalid encoded history");
+        }
+        State[] states = new State[size];
+        Term terms = current;
+        for (int i = 0; i < size; i++) {
+            int removed = reader.readInt();
+            if (removed < 0 || removed > Term.index(terms) + 1) {
+                throw new IllegalArgumentException("Invalid encoded history");
+            }
+            for (int j = 0; j < removed; j++) {
+                terms = terms.previous;
+            }
+            int added = reader.readInt();
+            for (int j = 0; j < added; j++) {
+                if (Term.index(terms) % 2 != 0) {
+                    // Next term is a number.
+                    terms = new Term(terms, reader.readDecimal(), null);
+                } else {
+                    int op = reader.readByte();
+                    if (op < 0 || op >= OPERATORS.length) {
+                        throw new IllegalArgumentException("Invalid encoded history");
+                    }
+                    terms = new Term(terms, null, OPERATORS[op]);
+                }
+            }
+
+            int flags = reader.readInt();
+            int currentValueScale = reader.readInt();
+            int errorCode = reader.readInt();
+            int values = reader.readByte();
+            BigDecimal currentValue = (values & 1) != 0 ? reader.readDecimal() : null;
+            BigDecimal resultValue = (values & 2) != 0 ? reader.readDecimal() : null;
+            states[i] = new State(terms, currentValue, resultValue, currentValueScale, errorCode, flags);
+        }
+
+        State stack = null;
+        for (int i = size - 1; i >= 0; i--) {
+            stack = states[i].withNext(stack);
+        }
+        return stack;
+    }
+
+}
@@ -0,0 +1,73 @@
+package com.github.inbalboa.calcdialog;
+
+import org.junit.Test;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+
+public class CalcBatchEvaluatorTest {
+
+    @Test
+    public void resultsInOrder() {
+        List<CalcBatchEvaluator.Item> items = createItems(1000);
+        List<CalcBatchEvaluator.Result> results = CalcBatchEvaluator.evaluate(items);
+        checkResults(results);
+    }
+
+    @Test
+    public void resultsInOrderOnExecutor() {
+        ExecutorService executor = Executors.newFixedThreadPool(3);
+        List<CalcBatchEvaluator.Item> items = createItems(1000);
+        List<CalcBatchEvaluator.Result> results = CalcBatchEvaluator.evaluate(items, executor);
+        executor.shutdown();
+        checkResults(results);
+    }
+
+    @Test
+    public void settings() {
+        CalcBatchEvaluator.Item item = new CalcBatchEvaluator.Item(new BigDecimal("2"))
+                .add(new BigDecimal("1"))
+                .divide(new BigDecimal("3"))
+                .setOrderOfOperationsApplied(false)
+                .setScale(2)
+                .setRoundingMode(RoundingMode.DOWN);
+        List<CalcBatchEvaluator.Result> results = CalcBatchEvaluator.evaluate(List.of(item));
+        assertEquals(results.get(0).getValue(), new BigDecimal("1"));
+    }
+
+    /**
+     * Create items evaluating to their index, with a division by zero every 10 items.
+     */
+    private static List<CalcBatchEvaluator.Item> createItems(int count) {
+        List<CalcBatchEvaluator.Item> items = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            items.add(new CalcBatchEvaluator.Item(BigDecimal.valueOf(i))
+                    .multiply(new BigDecimal("2"))
+                    .divide(new BigDecimal(i % 10 == 0 ? "0" : "4"))
+                    .add(BigDecimal.valueOf(i, 1).multiply(new BigDecimal("5"))));
+        }
+        return items;
+    }
+
+    private static void checkResults(List<CalcBatchEvaluator.Result> results) {
+        assertEquals(results.size(), 1000);
+        for (int i = 0; i < results.size(); i++) {
+            CalcBatchEvaluator.Result result = results.get(i);
+            if (i % 10 == 0) {
+                assertFalse(result.isSuccessful());
+                assertNull(result.getValue());
+            } else {
+                assertEquals(result.getValue().compareTo(BigDecimal.valueOf(i)), 0);
+            }
+        }
+    }
+
+}
@@ -0,0 +1,74 @@
+package com.github.inbalboa.calcdialog;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.math.BigDecimal;
+import java.nio.file.Files;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+public class CalcHistoryTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void pages() throws IOException {
+        File dir = folder.getRoot();
+        CalcHistory history = CalcHistory.open(dir, "pages");
+        for (int i = 0; i < 1000; i++) {
+            history.add(i + " + 1", BigDecimal.valueOf(i + 1), i);
+            if (i % 100 == 0) {
+                // Entries added after the files were mapped can be read.
+                assertEquals(history.get(i).getValue(), BigDecimal.valueOf(i + 1));
+            }
+        }
+        assertSame(CalcHistory.open(dir, "pages"), history);
+        assertEquals(history.getSize(), 1000);
+
+        List<CalcHistory.Entry> page = history.getPage(990, 20);
+        assertEquals(page.size(), 10);
+        for (int i = 0; i < page.size(); i++) {
+            CalcHistory.Entry entry = page.get(i);
+            assertEquals(entry.getTime(), 990 + i);
+            assertEquals(entry.getExpression(), (990 + i) + " + 1");
+            assertEquals(entry.getValue(), BigDecimal.valueOf(991 + i));
+        }
+
+        history.clear();
+        assertEquals(history.getSize(), 0);
+        history.add("2", BigDecimal.valueOf(2), 0);
+        assertEquals(history.get(0).getExpression(), "2");
+    }
+
+    @Test
+    public void incompleteEntry() throws IOException {
+        File dir = folder.getRoot();
+        CalcHistory history = CalcHistory.open(dir, "a");
+        history.add("1 × 2", BigDecimal.valueOf(2), 0);
+        history.add("3 ÷ 4", new BigDecimal("0.75"), 0);
+
+        // Copy the files with a partly written entry, as if the app was killed while adding it.
+        Files.copy(new File(dir, "a.log").toPath(), new File(dir, "b.log").toPath());
+        Files.copy(new File(dir, "a.idx").toPath(), new File(dir, "b.idx").toPath());
+        try (RandomAccessFile index = new RandomAccessFile(new File(dir, "b.idx"), "rw")) {
+            index.seek(index.length());
+            index.writeLong(1000);
+            index.writeShort(0);
+        }
+
+        CalcHistory copy = CalcHistory.open(dir, "b");
+        assertEquals(copy.getSize(), 2);
+        assertEquals(copy.get(1).getValue(), new BigDecimal("0.75"));
+        copy.add("5", BigDecimal.valueOf(5), 0);
+        assertEquals(copy.get(2).getExpression(), "5");
+    }
+
+}
@@ -0,0 +1,478 @@
+package com.github.inbalboa.calcdialog;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import org.junit.Test;
+
+import java.math.BigDecimal;
+import java.util.ArrayDeque;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class CalcPresenterTest {
+
+    /** 1 + 2 + ... + 400, long enough to be evaluated in the background. */
+    private static final String SUM = createSum(400);
+
+    @Test
+    public void cancelledEvaluationIsKept() {
+        TestView view = new TestView();
+        CalcPresenter presenter = view.attach();
+        presenter.onPasted(SUM);
+        presenter.onOperatorBtnClicked(Expression.Operator.ADD);
+        assertEquals(1, view.tasks.size());
+
+        // Cancelled before it runs, it still evaluates the first numbers until it notices.
+        presenter.onDigitBtnClicked(5);
+        assertFalse(presenter.isEvaluating());
+        view.runTasks();
+
+        // The rest is evaluated on the main thread.
+        presenter.onOperatorBtnClicked(Expression.Operator.ADD);
+        assertTrue(view.tasks.isEmpty());
+        assertFalse(presenter.isEvaluating());
+        presenter.onEqualBtnClicked();
+        presenter.render();
+        assertEquals("80205", view.value);
+    }
+
+    @Test
+    public void cancelledEvaluationIsContinued() {
+        TestView view = new TestView();
+        CalcPresenter presenter = view.attach();
+        presenter.onPasted(SUM);
+        presenter.onOperatorBtnClicked(Expression.Operator.ADD);
+        presenter.onDigitBtnClicked(5);
+
+        // Evaluated again before the cancelled evaluation is done, which continues it.
+        presenter.onOperatorBtnClicked(Expression.Operator.MULTIPLY);
+        assertEquals(2, view.tasks.size());
+        assertTrue(presenter.isEvaluating());
+        view.runTasks();
+        assertFalse(presenter.isEvaluating());
+
+        presenter.onDigitBtnClicked(2);
+        presenter.onEqualBtnClicked();
+        assertTrue(view.tasks.isEmpty());
+        presenter.render();
+        assertEquals("80210", view.value);
+    }
+
+    @Test
+    public void inputsWaitForResult() {
+        TestView view = new TestView();
+        CalcPresenter presenter = view.attach();
+        presenter.onPasted(SUM);
+        presenter.onEqualBtnClicked();
+        presenter.onOperatorBtnClicked(Expression.Operator.SUBTRACT);
+        presenter.onDigitBtnClicked(1);
+        presenter.onEqualBtnClicked();
+        presenter.render();
+        assertEquals("computing", view.value);
+
+        view.runTasks();
+        presenter.render();
+        assertEquals("80199", view.value);
+    }
+
+    @Test
+    public void savedStateBudgetDoesntEvaluate() {
+        TestView view = new TestView();
+        CalcPresenter presenter = view.attach();
+        presenter.onPasted(SUM);
+        presenter.onOperatorBtnClicked(Expression.Operator.ADD);
+        assertTrue(presenter.isEvaluating());
+
+        // Nothing can be collapsed while the expression is evaluated in the background.
+        byte[] state = presenter.encodeState();
+        assertTrue(presenter.encodeStateWithinBudget(state, 100).length > 100);
+        assertEquals(1, view.tasks.size());
+
+        // Once evaluated, the expression is collapsed into its value.
+        view.runTasks();
+        state = presenter.encodeState();
+        assertTrue(state.length > 100);
+        assertTrue(presenter.encodeStateWithinBudget(state, 100).length <= 100);
+    }
+
+    @Test
+    public void pastedDigitsAreLimited() {
+        TestView view = new TestView();
+        CalcPresenter presenter = view.attach();
+        // The defaults allow 10 integer digits and 8 fraction digits.
+        assertEquals(-1, presenter.onPasted("1234567890.12345678"));
+        assertEquals(14, presenter.onPasted("1 + 12345678901"));
+        assertEquals(10, presenter.onPasted("0.123456789"));
+        assertEquals(10, presenter.onPasted("-1234567890"));
+        presenter.render();
+        assertEquals("1234567890.12345678", view.value);
+
+        // Digits can't be added once pasted numbers are at the maximum.
+        presenter.onDigitBtnClicked(7);
+        presenter.render();
+        assertEquals("1234567890.12345678", view.value);
+    }
+
+    @Test
+    public void inputChangingNothingKeepsRedo() {
+        TestView view = new TestView();
+        CalcPresenter presenter = view.attach();
+        presenter.onPasted("1234567890");
+        presenter.onPasted("5");
+        presenter.onUndo();
+
+        // Digit over the maximum.
+        presenter.onDigitBtnClicked(1);
+        presenter.onRedo();
+        presenter.render();
+        assertEquals("5", view.value);
+
+        // Erase with nothing left.
+        presenter.onErasedOnce();
+        presenter.onPasted("7");
+        presenter.onUndo();
+        presenter.onErasedOnce();
+        presenter.onRedo();
+        presenter.render();
+        assertEquals("7", view.value);
+    }
+
+    @Test
+    public void typeAndEraseNegative() {
+        TestView view = new TestView();
+        CalcPresenter presenter = view.attach();
+        presenter.onDigitBtnClicked(5);
+        presenter.onSignBtnClicked();
+        presenter.onDigitBtnClicked(3);
+        assertDisplay(view, "", "-53");
+        presenter.onDecimalSepBtnClicked();
+        presenter.onDigitBtnClicked(2);
+        assertDisplay(view, "", "-53.2");
+        presenter.onErased(3);
+        assertDisplay(view, "", "-5");
+        presenter.onErasedOnce();
+        assertDisplay(view, "", "0");
+        presenter.onDigitBtnClicked(7);
+        assertDisplay(view, "", "7");
+    }
+
+    @Test
+    public void typeAndEraseDecimalSep() {
+        TestView view = new TestView();
+        CalcPresenter presenter = view.attach();
+        presenter.onDigitBtnClicked(1);
+        presenter.onDecimalSepBtnClicked();
+        assertDisplay(view, "", "1.");
+        presenter.onDigitBtnClicked(0);
+        assertDisplay(view, "", "1.0");
+
+        // Erasing the decimal separator, then typing integer digits again.
+        presenter.onErased(2);
+        assertDisplay(view, "", "1");
+        presenter.onDigitBtnClicked(2);
+        assertDisplay(view, "", "12");
+
+        // Decimal separator typed first.
+        presenter.onClearBtnClicked();
+        presenter.onDecimalSepBtnClicked();
+        presenter.onDigitBtnClicked(5);
+        assertDisplay(view, "", "0.5");
+    }
+
+    @Test
+    public void typeAndEraseBigNumber() {
+        TestView view = new TestView();
+        view.settings.maxIntDigits = 25;
+        CalcPresenter presenter = view.attach();
+        for (int i = 0; i < 25; i++) {
+            presenter.onDigitBtnClicked(9 - i % 10);
+        }
+        assertDisplay(view, "", "9876543210987654321098765");
+        presenter.onSignBtnClicked();
+        presenter.onErased(6);
+        assertDisplay(view, "", "-9876543210987654321");
+        presenter.onErasedOnce();
+        assertDisplay(view, "", "-987654321098765432");
+        presenter.onDigitBtnClicked(1);
+        presenter.onDigitBtnClicked(2);
+        assertDisplay(view, "", "-98765432109876543212");
+    }
+
+    @Test
+    public void typedDigitsAreLimited() {
+        TestView view = new TestView();
+        CalcPresenter presenter = view.attach();
+        // The defaults allow 10 integer digits and 8 fraction digits.
+        for (int i = 0; i < 12; i++) {
+            presenter.onDigitBtnClicked(i % 10);
+        }
+        assertDisplay(view, "", "1234567890");
+        presenter.onDecimalSepBtnClicked();
+        for (int i = 0; i < 10; i++) {
+            presenter.onDigitBtnClicked(i % 10);
+        }
+        assertDisplay(view, "", "1234567890.01234567");
+
+        // The minus sign counts as an integer digit.
+        presenter.onClearBtnClicked();
+        presenter.onDigitBtnClicked(1);
+        presenter.onSignBtnClicked();
+        for (int i = 0; i < 10; i++) {
+            presenter.onDigitBtnClicked(0);
+        }
+        assertDisplay(view, "", "-100000000");
+    }
+
+    @Test
+    public void eraseIntoExpression() {
+        TestView view = new TestView();
+        view.settings.isExpressionEditable = true;
+        CalcPresenter presenter = view.attach();
+        presenter.onDigitBtnClicked(1);
+        presenter.onDecimalSepBtnClicked();
+        presenter.onDigitBtnClicked(5);
+        presenter.onOperatorBtnClicked(Expression.Operator.ADD);
+        presenter.onDigitBtnClicked(3);
+        assertDisplay(view, "1.5 +", "3");
+        presenter.onErased(2);
+        assertDisplay(view, "", "1.5");
+        presenter.onDigitBtnClicked(2);
+        assertDisplay(view, "", "1.52");
+        presenter.onErased(3);
+        presenter.onDigitBtnClicked(4);
+        assertDisplay(view, "", "14");
+    }
+
+    @Test
+    public void undoRedoInputs() {
+        TestView view = new TestView();
+        CalcPresenter presenter = view.attach();
+        presenter.onDigitBtnClicked(1);
+        presenter.onDigitBtnClicked(2);
+        presenter.onOperatorBtnClicked(Expression.Operator.ADD);
+        assertDisplay(view, "12 +", "0");
+        presenter.onDigitBtnClicked(3);
+        presenter.onErasedOnce();
+        presenter.onDigitBtnClicked(4);
+        presenter.onClearBtnClicked();
+        presenter.onPasted("5 × 6");
+        assertDisplay(view, "5 ×", "6");
+
+        presenter.onUndo();
+        assertDisplay(view, "", "0");
+        presenter.onUndo();
+        assertDisplay(view, "12 +", "4");
+        presenter.onUndo();
+        assertDisplay(view, "12 +", "0");
+        presenter.onUndo();
+        assertDisplay(view, "12 +", "3");
+        presenter.onUndo();
+        assertDisplay(view, "12 +", "0");
+        presenter.onUndo();
+        assertDisplay(view, "", "12");
+        presenter.onUndo();
+        presenter.onUndo();
+        assertDisplay(view, "", "0");
+        presenter.onUndo();
+        assertDisplay(view, "", "0");
+
+        presenter.onRedo();
+        presenter.onRedo();
+        presenter.onRedo();
+        assertDisplay(view, "12 +", "0");
+        presenter.onDigitBtnClicked(7);
+        presenter.onEqualBtnClicked();
+        assertDisplay(view, "12 + 7  =", "19");
+        presenter.onUndo();
+        assertDisplay(view, "12 +", "7");
+    }
+
+    @Test
+    public void inputInvalidatesRedo() {
+        TestView view = new TestView();
+        CalcPresenter presenter = view.attach();
+        presenter.onDigitBtnClicked(1);
+        presenter.onDigitBtnClicked(2);
+        presenter.onUndo();
+        presenter.onDigitBtnClicked(3);
+        presenter.onRedo();
+        assertDisplay(view, "", "13");
+        presenter.onUndo();
+        assertDisplay(view, "", "1");
+    }
+
+    @Test
+    public void undoHistoryIsSaved() {
+        TestView view = new TestView();
+        CalcPresenter presenter = view.attach();
+        presenter.onPasted("1 + 2 + 3");
+        presenter.onOperatorBtnClicked(Expression.Operator.MULTIPLY);
+        presenter.onDigitBtnClicked(4);
+        presenter.onUndo();
+
+        TestView restoredView = new TestView();
+        CalcPresenter restored = restoredView.attach();
+        restored.decodeState(presenter.encodeState());
+        restored.onUndo();
+        assertDisplay(restoredView, "1 + 2 +", "3");
+        restored.onUndo();
+        assertDisplay(restoredView, "", "0");
+        restored.onRedo();
+        restored.onRedo();
+        restored.onRedo();
+        assertDisplay(restoredView, "1 + 2 + 3 ×", "4");
+    }
+
+    @Test
+    public void undoHistoryIsTrimmedWithinBudget() {
+        TestView view = new TestView();
+        CalcPresenter presenter = view.attach();
+        for (int i = 1; i <= 100; i++) {
+            presenter.onDigitBtnClicked(i % 10);
+            presenter.onOperatorBtnClicked(Expression.Operator.ADD);
+        }
+        byte[] state = presenter.encodeState();
+        byte[] trimmed = presenter.encodeStateWithinBudget(state, state.length / 2);
+        assertTrue(trimmed.length <= state.length / 2);
+
+        // The most recent inputs can still be undone, and the expression isn't collapsed.
+        TestView fullView = new TestView();
+        fullView.attach().decodeState(state);
+        TestView trimmedView = new TestView();
+        trimmedView.attach().decodeState(trimmed);
+        for (int i = 0; i < 20; i++) {
+            fullView.presenter.onUndo();
+            trimmedView.presenter.onUndo();
+        }
+        fullView.presenter.render();
+        assertDisplay(trimmedView, fullView.expression, fullView.value);
+
+        // The oldest ones can't.
+        for (int i = 0; i < 200; i++) {
+            fullView.presenter.onUndo();
+            trimmedView.presenter.onUndo();
+        }
+        assertDisplay(fullView, "", "0");
+        trimmedView.presenter.render();
+        assertFalse(trimmedView.expression.isEmpty());
+    }
+
+    private static void assertDisplay(TestView view, String expression, String value) {
+        view.presenter.render();
+        assertEquals(expression, view.expression);
+        assertEquals(value, view.value);
+    }
+
+    private static String createSum(int count) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 1; i <= count; i++) {
+            if (i > 1) sb.append('+');
+            sb.append(i);
+        }
+        return sb.toString();
+    }
+
+    /**
+     * View running the tasks given to run in the background only when asked.
+     */
+    private static class TestView implements CalcView {
+        private final CalcSettings settings = new CalcSettings();
+        private CalcPresenter presenter;
+        final ArrayDeque<Runnable> tasks = new ArrayDeque<>();
+        @Nullable
+        String value;
+        String expression = "";
+
+        TestView() {
+            settings.setMaxValue(null);
+            settings.setMinValue(null);
+            settings.nbFormat.setGroupingUsed(false);
+            settings.isExpressionShown = true;
+        }
+
+        CalcPresenter attach() {
+            presenter = new CalcPresenter();
+            presenter.attach(this, null);
+            return presenter;
+        }
+
+        /**
+         * Run the tasks in order, each followed by its callback.
+         */
+        void runTasks() {
+            while (!tasks.isEmpty()) {
+                tasks.remove().run();
+            }
+        }
+
+        @NonNull
+        @Override
+        public CalcSettings getSettings() {
+            return settings;
+        }
+
+        @Override
+        public void exit() {}
+
+        @Override
+        public void sendValueResult(BigDecimal value) {}
+
+        @Override
+        public void addHistoryEntry(@NonNull String expression, @NonNull BigDecimal value) {}
+
+        @Override
+        public void setExpressionVisible(boolean visible) {}
+
+        @Override
+        public void setAnswerBtnVisible(boolean visible) {}
+
+        @Override
+        public void setSignBtnVisible(boolean visible) {}
+
+        @Override
+        public void setCancelBtnVisible(boolean visible) {}
+
+        @Override
+        public void setDecimalSepBtnEnabled(boolean enabled) {}
+
+        @Override
+        public void updateExpression(@NonNull String text) {
+            expression = text;
+        }
+
+        @Override
+        public void updateCurrentValue(@Nullable String text) {
+            value = text;
+        }
+
+        @Override
+        public void showErrorText(int error) {
+            value = "error";
+        }
+
+        @Override
+        public void showAnswerText() {
+            value = "answer";
+        }
+
+        @Override
+        public void showComputingText() {
+            value = "computing";
+        }
+
+        @Override
+        public void requestRender() {}
+
+        @Override
+        public void runInBackground(@NonNull Runnable task, @NonNull Runnable callback) {
+            tasks.add(() -> {
+                task.run();
+                callback.run();
+            });
+        }
+    }
+
+}
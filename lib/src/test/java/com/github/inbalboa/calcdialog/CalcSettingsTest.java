@@ -0,0 +1,46 @@
+package com.github.inbalboa.calcdialog;
+
+import android.view.KeyEvent;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class CalcSettingsTest {
+
+    @Test
+    public void defaultKeymap() {
+        CalcSettings settings = new CalcSettings();
+        assertEquals(CalcKeyAction.DIGIT_0, settings.getKeyAction(KeyEvent.KEYCODE_0));
+        assertEquals(CalcKeyAction.DIGIT_7, settings.getKeyAction(KeyEvent.KEYCODE_NUMPAD_7));
+        assertEquals(CalcKeyAction.MULTIPLY, settings.getKeyAction(KeyEvent.KEYCODE_NUMPAD_MULTIPLY));
+        assertEquals(CalcKeyAction.ERASE, settings.getKeyAction(KeyEvent.KEYCODE_DEL));
+        assertEquals(CalcKeyAction.OK, settings.getKeyAction(KeyEvent.KEYCODE_NUMPAD_ENTER));
+        assertNull(settings.getKeyAction(KeyEvent.KEYCODE_COMMA));
+        assertNull(settings.getKeyAction(-1));
+        assertNull(settings.getKeyAction(10000));
+    }
+
+    @Test
+    public void remapKeys() {
+        CalcSettings settings = new CalcSettings()
+                .setKeyAction(KeyEvent.KEYCODE_NUMPAD_COMMA, CalcKeyAction.DECIMAL_SEP)
+                .setKeyAction(KeyEvent.KEYCODE_NUMPAD_ENTER, CalcKeyAction.EQUAL)
+                .setKeyAction(KeyEvent.KEYCODE_DEL, null)
+                .setKeyAction(1000, CalcKeyAction.CANCEL);
+        assertEquals(CalcKeyAction.DECIMAL_SEP, settings.getKeyAction(KeyEvent.KEYCODE_NUMPAD_COMMA));
+        assertEquals(CalcKeyAction.EQUAL, settings.getKeyAction(KeyEvent.KEYCODE_NUMPAD_ENTER));
+        assertNull(settings.getKeyAction(KeyEvent.KEYCODE_DEL));
+        assertEquals(CalcKeyAction.CANCEL, settings.getKeyAction(1000));
+
+        // Default keymap is unchanged.
+        CalcSettings other = new CalcSettings();
+        assertEquals(CalcKeyAction.OK, other.getKeyAction(KeyEvent.KEYCODE_NUMPAD_ENTER));
+        assertEquals(CalcKeyAction.ERASE, other.getKeyAction(KeyEvent.KEYCODE_DEL));
+
+        other.clearKeyActions();
+        assertNull(other.getKeyAction(KeyEvent.KEYCODE_0));
+    }
+
+}
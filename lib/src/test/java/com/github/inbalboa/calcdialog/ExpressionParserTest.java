@@ -0,0 +1,138 @@
+package com.github.inbalboa.calcdialog;
+
+import org.junit.Test;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.text.DecimalFormatSymbols;
+import java.text.ParsePosition;
+import java.util.Locale;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class ExpressionParserTest {
+
+    private static final ExpressionParser US_PARSER = new ExpressionParser(DecimalFormatSymbols.getInstance(Locale.US));
+
+    @Test
+    public void parseExpression() {
+        Expression expr = new Expression();
+        ParsePosition pos = new ParsePosition(0);
+        BigDecimal value = US_PARSER.parse("1,234.5 + 2 × -3", expr, pos);
+        assertEquals(-1, pos.getErrorIndex());
+        assertEquals(new BigDecimal("-3"), value);
+        assertEquals(2, expr.getNumberCount());
+        assertEquals(new BigDecimal("1234.5"), expr.getNumber(0));
+        assertEquals(Expression.Operator.ADD, expr.getOperator(0));
+        assertEquals(new BigDecimal("2"), expr.getNumber(1));
+        assertEquals(Expression.Operator.MULTIPLY, expr.getOperator(1));
+
+        expr.addNumber(value);
+        assertEquals(new BigDecimal("1228.5"), expr.evaluate(true, 8, RoundingMode.HALF_EVEN));
+    }
+
+    @Test
+    public void parseOperators() {
+        Expression expr = new Expression();
+        ParsePosition pos = new ParsePosition(0);
+        assertNull(US_PARSER.parse("8-2*3/ 4−.5÷1+", expr, pos));
+        assertEquals(-1, pos.getErrorIndex());
+        assertEquals(6, expr.getOperatorCount());
+        assertEquals("8 − 2 × 3 ÷ 4 − 0.5 ÷ 1 +", expr.toString());
+    }
+
+    @Test
+    public void parseColumn() {
+        Expression expr = new Expression();
+        ParsePosition pos = new ParsePosition(0);
+        BigDecimal value = US_PARSER.parse("10.50\r\n20\n  -30\n", expr, pos);
+        assertEquals(-1, pos.getErrorIndex());
+        assertEquals(new BigDecimal("-30"), value);
+        assertEquals("10.5 + 20 +", expr.toString());
+        assertEquals(2, expr.getNumber(0).scale());
+    }
+
+    @Test
+    public void parseLocaleSymbols() {
+        DecimalFormatSymbols symbols = DecimalFormatSymbols.getInstance(Locale.FRANCE);
+        ExpressionParser parser = new ExpressionParser(symbols);
+        // The grouping separator is a no-break space, the other no-break space is accepted too.
+        String text = "1" + symbols.getGroupingSeparator() + "234,5 − 1\u00A0000 − 1\u202F000";
+        Expression expr = new Expression();
+        ParsePosition pos = new ParsePosition(0);
+        BigDecimal value = parser.parse(text, expr, pos);
+        assertEquals(-1, pos.getErrorIndex());
+        assertEquals(new BigDecimal("1234.5"), expr.getNumber(0));
+        assertEquals(new BigDecimal("1000"), value);
+
+        // A regular space separates numbers.
+        checkError(parser, "10 200", 3);
+    }
+
+    @Test
+    public void parseGrouping() {
+        Expression expr = new Expression();
+        ParsePosition pos = new ParsePosition(0);
+        BigDecimal value = US_PARSER.parse("12345,678,901.5 + 0,001", expr, pos);
+        assertEquals(-1, pos.getErrorIndex());
+        assertEquals(new BigDecimal("12345678901.5"), expr.getNumber(0));
+        assertEquals(new BigDecimal("1"), value);
+
+        checkError("1,2,3", 3);
+        checkError("12,34", 5);
+        checkError("1,2345", 5);
+        checkError("1,234,56.7", 8);
+
+        DecimalFormatSymbols symbols = DecimalFormatSymbols.getInstance(Locale.US);
+        symbols.setGroupingSeparator(' ');
+        checkError(new ExpressionParser(symbols), "10 20 30", 5);
+        checkError(new ExpressionParser(DecimalFormatSymbols.getInstance(Locale.US), 0, 10, 10), "1,234", 1);
+    }
+
+    @Test
+    public void parseBigNumber() {
+        ParsePosition pos = new ParsePosition(0);
+        BigDecimal value = US_PARSER.parse("-123456789012345678901234.5", new Expression(), pos);
+        assertEquals(new BigDecimal("-123456789012345678901234.5"), value);
+    }
+
+    @Test
+    public void parseErrors() {
+        checkError("", 0);
+        checkError("   ", 3);
+        checkError("1 + a", 4);
+        checkError("1 2", 2);
+        checkError("+1", 0);
+        checkError("1 + -", 4);
+        checkError("1.2.3", 3);
+        checkError("1,,2", 1);
+    }
+
+    @Test
+    public void parseMaxDigits() {
+        ExpressionParser parser = new ExpressionParser(DecimalFormatSymbols.getInstance(Locale.US), 3, 4, 2);
+        ParsePosition pos = new ParsePosition(0);
+        BigDecimal value = parser.parse("-234.56 + 1,234 + 00012.5", new Expression(), pos);
+        assertEquals(-1, pos.getErrorIndex());
+        assertEquals(new BigDecimal("12.5"), value);
+
+        checkError(parser, "12345", 4);
+        // The minus sign counts as an integer digit.
+        checkError(parser, "-1234", 4);
+        checkError(parser, "1 + 0.0001", 8);
+        checkError(parser, "1.234 + 1", 4);
+        checkError(parser, "1\n-10,000", 7);
+    }
+
+    private static void checkError(String text, int errorIndex) {
+        checkError(US_PARSER, text, errorIndex);
+    }
+
+    private static void checkError(ExpressionParser parser, String text, int errorIndex) {
+        ParsePosition pos = new ParsePosition(0);
+        assertNull(parser.parse(text, new Expression(), pos));
+        assertEquals(errorIndex, pos.getErrorIndex());
+    }
+
+}
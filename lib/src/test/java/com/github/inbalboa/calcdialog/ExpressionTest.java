@@ -3,18 +3,23 @@ package com.github.inbalboa.calcdialog;
 import org.junit.Test;
 
 import java.math.BigDecimal;
+import java.math.MathContext;
 import java.math.RoundingMode;
+import java.text.NumberFormat;
+import java.util.Locale;
+import java.util.concurrent.CancellationException;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertThrows;
 
 public class ExpressionTest {
 
     @Test
     public void twoSum() {
         Expression expr = new Expression();
-        expr.numbers.add(new BigDecimal("12.1"));
-        expr.operators.add(Expression.Operator.ADD);
-        expr.numbers.add(new BigDecimal("-24.8"));
+        expr.addNumber(new BigDecimal("12.1"));
+        expr.addOperator(Expression.Operator.ADD);
+        expr.addNumber(new BigDecimal("-24.8"));
 
         BigDecimal result = expr.evaluate(false, 8, RoundingMode.HALF_UP);
         assertEquals(result, new BigDecimal("-12.7"));
@@ -23,11 +28,11 @@ public class ExpressionTest {
     @Test
     public void sumAndMultiply() {
         Expression expr = new Expression();
-        expr.numbers.add(new BigDecimal("3"));
-        expr.operators.add(Expression.Operator.ADD);
-        expr.numbers.add(new BigDecimal("4"));
-        expr.operators.add(Expression.Operator.MULTIPLY);
-        expr.numbers.add(new BigDecimal("5"));
+        expr.addNumber(new BigDecimal("3"));
+        expr.addOperator(Expression.Operator.ADD);
+        expr.addNumber(new BigDecimal("4"));
+        expr.addOperator(Expression.Operator.MULTIPLY);
+        expr.addNumber(new BigDecimal("5"));
 
         BigDecimal result1 = expr.evaluate(false, 8, RoundingMode.HALF_UP);
         assertEquals(result1, new BigDecimal("35"));
@@ -39,19 +44,19 @@ public class ExpressionTest {
     @Test
     public void longExpression() {
         Expression expr = new Expression();
-        expr.numbers.add(new BigDecimal("-1"));
-        expr.operators.add(Expression.Operator.DIVIDE);
-        expr.numbers.add(new BigDecimal("6"));
-        expr.operators.add(Expression.Operator.ADD);
-        expr.numbers.add(new BigDecimal("5"));
-        expr.operators.add(Expression.Operator.MULTIPLY);
-        expr.numbers.add(new BigDecimal("12"));
-        expr.operators.add(Expression.Operator.DIVIDE);
-        expr.numbers.add(new BigDecimal("3"));
-        expr.operators.add(Expression.Operator.DIVIDE);
-        expr.numbers.add(new BigDecimal("8"));
-        expr.operators.add(Expression.Operator.SUBTRACT);
-        expr.numbers.add(new BigDecimal("-10"));
+        expr.addNumber(new BigDecimal("-1"));
+        expr.addOperator(Expression.Operator.DIVIDE);
+        expr.addNumber(new BigDecimal("6"));
+        expr.addOperator(Expression.Operator.ADD);
+        expr.addNumber(new BigDecimal("5"));
+        expr.addOperator(Expression.Operator.MULTIPLY);
+        expr.addNumber(new BigDecimal("12"));
+        expr.addOperator(Expression.Operator.DIVIDE);
+        expr.addNumber(new BigDecimal("3"));
+        expr.addOperator(Expression.Operator.DIVIDE);
+        expr.addNumber(new BigDecimal("8"));
+        expr.addOperator(Expression.Operator.SUBTRACT);
+        expr.addNumber(new BigDecimal("-10"));
 
         BigDecimal result1 = expr.evaluate(false, 8, RoundingMode.HALF_UP);
         assertEquals(result1, new BigDecimal("12.41666667"));
@@ -60,15 +65,271 @@ public class ExpressionTest {
         assertEquals(result2, new BigDecimal("12.33333333"));
     }
 
+    @Test
+    public void subtractProducts() {
+        Expression expr = new Expression();
+        expr.addNumber(new BigDecimal("12"));
+        expr.addOperator(Expression.Operator.SUBTRACT);
+        expr.addNumber(new BigDecimal("2"));
+        expr.addOperator(Expression.Operator.MULTIPLY);
+        expr.addNumber(new BigDecimal("3"));
+        expr.addOperator(Expression.Operator.SUBTRACT);
+        expr.addNumber(new BigDecimal("4"));
+        expr.addOperator(Expression.Operator.DIVIDE);
+        expr.addNumber(new BigDecimal("2"));
+
+        BigDecimal result1 = expr.evaluate(false, 8, RoundingMode.HALF_UP);
+        assertEquals(result1, new BigDecimal("13"));
+
+        BigDecimal result2 = expr.evaluate(true, 8, RoundingMode.HALF_UP);
+        assertEquals(result2, new BigDecimal("4"));
+    }
+
+    @Test
+    public void evaluateAfterEachTerm() {
+        Expression expr = new Expression();
+        expr.addNumber(new BigDecimal("2"));
+        expr.addOperator(Expression.Operator.ADD);
+        expr.addNumber(new BigDecimal("3"));
+        assertEquals(expr.evaluate(true, 8, RoundingMode.HALF_UP), new BigDecimal("5"));
+
+        expr.addOperator(Expression.Operator.MULTIPLY);
+        expr.addNumber(new BigDecimal("4"));
+        assertEquals(expr.evaluate(true, 8, RoundingMode.HALF_UP), new BigDecimal("14"));
+
+        // Erase last number and replace last operator
+        expr.removeLastNumber();
+        expr.setLastOperator(Expression.Operator.SUBTRACT);
+        expr.addNumber(new BigDecimal("4"));
+        assertEquals(expr.evaluate(true, 8, RoundingMode.HALF_UP), new BigDecimal("1"));
+
+        // Parameters changed, state must be computed again
+        expr.setLastOperator(Expression.Operator.DIVIDE);
+        assertEquals(expr.evaluate(false, 2, RoundingMode.HALF_UP), new BigDecimal("1.25"));
+    }
+
+    @Test
+    public void longOverflow() {
+        Expression expr = new Expression();
+        expr.addNumber(new BigDecimal("9223372036854775807"));
+        expr.addOperator(Expression.Operator.ADD);
+        expr.addNumber(new BigDecimal("1"));
+        expr.addOperator(Expression.Operator.MULTIPLY);
+        expr.addNumber(new BigDecimal("0.5"));
+
+        BigDecimal result1 = expr.evaluate(false, 8, RoundingMode.HALF_UP);
+        assertEquals(result1, new BigDecimal("4611686018427387904"));
+
+        BigDecimal result2 = expr.evaluate(true, 8, RoundingMode.HALF_UP);
+        assertEquals(result2, new BigDecimal("9223372036854775807.5"));
+    }
+
+    @Test
+    public void divisionRounding() {
+        Expression expr = new Expression();
+        expr.addNumber(new BigDecimal("-2"));
+        expr.addOperator(Expression.Operator.DIVIDE);
+        expr.addNumber(new BigDecimal("3"));
+
+        assertEquals(expr.evaluate(false, 2, RoundingMode.HALF_EVEN), new BigDecimal("-0.67"));
+        assertEquals(expr.evaluate(false, 2, RoundingMode.CEILING), new BigDecimal("-0.66"));
+        assertEquals(expr.evaluate(false, 2, RoundingMode.FLOOR), new BigDecimal("-0.67"));
+        assertEquals(expr.evaluate(false, 2, RoundingMode.DOWN), new BigDecimal("-0.66"));
+    }
+
+    @Test
+    public void removeNumbers() {
+        Expression expr = new Expression();
+        expr.addNumber(new BigDecimal("1.50"));
+        expr.addOperator(Expression.Operator.ADD);
+        expr.addNumber(new BigDecimal("123456789012345678901234567890"));
+        expr.addOperator(Expression.Operator.SUBTRACT);
+        expr.addNumber(new BigDecimal("-7"));
+
+        assertEquals(expr.removeLastNumber(), new BigDecimal("-7"));
+        expr.removeLastOperator();
+        assertEquals(expr.removeLastNumber(), new BigDecimal("123456789012345678901234567890"));
+        expr.removeLastOperator();
+        assertEquals(expr.getNumber(0), new BigDecimal("1.50"));
+        assertEquals(expr.getNumberCount(), 1);
+        assertEquals(expr.getOperatorCount(), 0);
+    }
+
+    @Test
+    public void formatAfterEachTerm() {
+        NumberFormat nbFormat = NumberFormat.getInstance(Locale.US);
+        Expression expr = new Expression();
+        assertEquals(expr.format(nbFormat), "");
+
+        expr.addNumber(new BigDecimal("1200"));
+        assertEquals(expr.format(nbFormat), "1,200 ");
+        expr.addOperator(Expression.Operator.ADD);
+        assertEquals(expr.format(nbFormat), "1,200 +");
+        expr.setLastOperator(Expression.Operator.DIVIDE);
+        expr.addNumber(new BigDecimal("-3.5"));
+        expr.addOperator(Expression.Operator.MULTIPLY);
+        assertEquals(expr.format(nbFormat), "1,200 ÷ -3.5 ×");
+
+        expr.removeLastOperator();
+        assertEquals(expr.format(nbFormat), "1,200 ÷ -3.5 ");
+        expr.removeLastNumber();
+        expr.removeLastOperator();
+        assertEquals(expr.format(nbFormat), "1,200 ");
+
+        // Different format, text is formatted again
+        assertEquals(expr.format(NumberFormat.getInstance(Locale.GERMANY)), "1.200 ");
+    }
+
     @Test
     public void stripTrailingZeroes() {
         Expression expr = new Expression();
-        expr.numbers.add(new BigDecimal("1"));
-        expr.operators.add(Expression.Operator.DIVIDE);
-        expr.numbers.add(new BigDecimal("8"));
+        expr.addNumber(new BigDecimal("1"));
+        expr.addOperator(Expression.Operator.DIVIDE);
+        expr.addNumber(new BigDecimal("8"));
 
         BigDecimal result = expr.evaluate(false, 8, RoundingMode.HALF_UP);
         assertEquals(result, new BigDecimal("0.125"));
     }
 
+    @Test
+    public void collapse() {
+        // 1 + 2 × 3 - 4 ÷ 8 ×
+        Expression expr = new Expression();
+        expr.addNumber(new BigDecimal("1"));
+        expr.addOperator(Expression.Operator.ADD);
+        expr.addNumber(new BigDecimal("2"));
+        expr.addOperator(Expression.Operator.MULTIPLY);
+        expr.addNumber(new BigDecimal("3"));
+        expr.addOperator(Expression.Operator.SUBTRACT);
+        expr.addNumber(new BigDecimal("4"));
+        expr.addOperator(Expression.Operator.DIVIDE);
+        expr.addNumber(new BigDecimal("8"));
+        expr.addOperator(Expression.Operator.MULTIPLY);
+
+        // With priority, only complete terms can be collapsed.
+        assertEquals(3, expr.getCollapsibleCount(2, Integer.MAX_VALUE, true));
+        assertEquals(3, expr.getCollapsibleCount(4, Integer.MAX_VALUE, true));
+        assertEquals(0, new Expression().getCollapsibleCount(2, Integer.MAX_VALUE, true));
+        assertEquals(4, expr.getCollapsibleCount(4, Integer.MAX_VALUE, false));
+        assertEquals(0, expr.getCollapsibleCount(2, 2, true));
+        assertEquals(2, expr.getCollapsibleCount(4, 2, false));
+
+        NumberFormat nbFormat = NumberFormat.getInstance(Locale.US);
+        Expression collapsed = expr.collapse(3, true, 8, RoundingMode.HALF_UP, null, false);
+        assertEquals("7 − 4 ÷ 8 ×", collapsed.format(nbFormat));
+        assertEquals("1 + 2 × 3 − 4 ÷ 8 ×", expr.format(nbFormat));
+
+        expr.addNumber(new BigDecimal("3"));
+        collapsed.addNumber(new BigDecimal("3"));
+        assertEquals(expr.evaluate(true, 8, RoundingMode.HALF_UP),
+                collapsed.evaluate(true, 8, RoundingMode.HALF_UP));
+        assertEquals(6, expr.getCollapsibleCount(4, Integer.MAX_VALUE, true));
+        assertEquals(new BigDecimal("5.5"),
+                expr.collapse(6, true, 8, RoundingMode.HALF_UP, null, false).getNumber(0));
+
+        Expression sequential = expr.collapse(4, false, 8, RoundingMode.HALF_UP, null, false);
+        assertEquals("5 ÷ 8 × 3 ", sequential.format(nbFormat));
+        assertEquals(expr.evaluate(false, 8, RoundingMode.HALF_UP),
+                sequential.evaluate(false, 8, RoundingMode.HALF_UP));
+    }
+
+    @Test
+    public void mathContext() {
+        // 1.1 ^ 40, with 40 fraction digits if exact.
+        Expression expr = new Expression();
+        expr.addNumber(new BigDecimal("1.1"));
+        BigDecimal expected = new BigDecimal("1.1");
+        for (int i = 1; i < 40; i++) {
+            expr.addOperator(Expression.Operator.MULTIPLY);
+            expr.addNumber(new BigDecimal("1.1"));
+            expected = expected.multiply(new BigDecimal("1.1"), MathContext.DECIMAL64);
+        }
+        assertEquals(40, expr.evaluate(true, 8, RoundingMode.HALF_UP).scale());
+
+        BigDecimal result = expr.evaluate(true, 8, RoundingMode.HALF_UP, MathContext.DECIMAL64);
+        assertEquals(expected.stripTrailingZeros(), result);
+        assertEquals(16, result.precision());
+
+        // Rounding a result stored as a long.
+        Expression small = new Expression();
+        small.addNumber(new BigDecimal("123456"));
+        small.addOperator(Expression.Operator.MULTIPLY);
+        small.addNumber(new BigDecimal("-1000"));
+        small.addOperator(Expression.Operator.ADD);
+        small.addNumber(new BigDecimal("1"));
+        MathContext mc = new MathContext(3, RoundingMode.HALF_UP);
+        assertEquals(new BigDecimal("-1.23E8"), small.evaluate(true, 8, RoundingMode.HALF_UP, mc));
+    }
+
+    @Test
+    public void rational() {
+        // 1 ÷ 3 × 3 + 1.125 × 0.001
+        Expression expr = new Expression();
+        expr.addNumber(new BigDecimal("1"));
+        expr.addOperator(Expression.Operator.DIVIDE);
+        expr.addNumber(new BigDecimal("3"));
+        expr.addOperator(Expression.Operator.MULTIPLY);
+        expr.addNumber(new BigDecimal("3"));
+        assertEquals(new BigDecimal("0.99999999"), expr.evaluate(true, 8, RoundingMode.HALF_UP));
+        assertEquals(BigDecimal.ONE, expr.evaluateRational(true, 8, RoundingMode.HALF_UP, null));
+
+        expr.addOperator(Expression.Operator.ADD);
+        expr.addNumber(new BigDecimal("1.125"));
+        expr.addOperator(Expression.Operator.MULTIPLY);
+        expr.addNumber(new BigDecimal("0.001"));
+        assertEquals(new BigDecimal("1.001125"), expr.evaluateRational(true, 8, RoundingMode.HALF_UP, null));
+
+        // Division result is only rounded once.
+        expr.addOperator(Expression.Operator.DIVIDE);
+        expr.addNumber(new BigDecimal("-7"));
+        assertEquals(new BigDecimal("0.99983929"), expr.evaluateRational(true, 8, RoundingMode.HALF_UP, null));
+        assertEquals(new BigDecimal("0.99984"),
+                expr.evaluateRational(true, 8, RoundingMode.HALF_UP, new MathContext(5)));
+
+        expr.addOperator(Expression.Operator.DIVIDE);
+        expr.addNumber(BigDecimal.ZERO);
+        assertThrows(ArithmeticException.class,
+                () -> expr.evaluateRational(true, 8, RoundingMode.HALF_UP, null));
+
+        // Without division, the result is exact.
+        Expression product = new Expression();
+        product.addNumber(new BigDecimal("1.123456789"));
+        product.addOperator(Expression.Operator.MULTIPLY);
+        product.addNumber(new BigDecimal("2"));
+        assertEquals(new BigDecimal("2.246913578"),
+                product.evaluateRational(true, 2, RoundingMode.HALF_UP, null));
+    }
+
+    @Test
+    public void copyForEvaluation() {
+        // 1 + 2 + ... + 1000
+        Expression expr = new Expression();
+        for (int i = 1; i <= 1000; i++) {
+            if (i > 1) expr.addOperator(Expression.Operator.ADD);
+            expr.addNumber(BigDecimal.valueOf(i));
+        }
+        assertEquals(1000, expr.getUnevaluatedCount(true, 8, RoundingMode.HALF_UP, null, false));
+
+        Expression copy = expr.copyForEvaluation(null);
+        assertEquals(new BigDecimal("5.005E+5"), copy.evaluate(true, 8, RoundingMode.HALF_UP, null, false));
+        expr.adoptRunningState(copy);
+        assertEquals(0, expr.getUnevaluatedCount(true, 8, RoundingMode.HALF_UP, null, false));
+        assertEquals(1000, expr.getUnevaluatedCount(false, 8, RoundingMode.HALF_UP, null, false));
+
+        expr.addOperator(Expression.Operator.MULTIPLY);
+        expr.addNumber(new BigDecimal("2"));
+        assertEquals(1, expr.getUnevaluatedCount(true, 8, RoundingMode.HALF_UP, null, false));
+        assertEquals(new BigDecimal("5.015E+5"), expr.evaluate(true, 8, RoundingMode.HALF_UP));
+
+        Expression cancelled = expr.copyForEvaluation(null);
+        cancelled.cancelEvaluation();
+        assertThrows(CancellationException.class,
+                () -> cancelled.evaluate(false, 8, RoundingMode.HALF_UP));
+
+        // The numbers evaluated until it was cancelled are kept, if they weren't changed since.
+        expr.removeLastNumber();
+        expr.adoptRunningState(cancelled);
+        assertEquals(1000 - 256, expr.getUnevaluatedCount(false, 8, RoundingMode.HALF_UP, null, false));
+    }
+
 }
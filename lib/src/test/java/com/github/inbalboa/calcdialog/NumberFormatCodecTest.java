@@ -0,0 +1,79 @@
+package com.github.inbalboa.calcdialog;
+
+import org.junit.Test;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.text.DecimalFormat;
+import java.text.NumberFormat;
+import java.util.Locale;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class NumberFormatCodecTest {
+
+    @Test
+    public void localeFormats() {
+        checkRoundTrip(NumberFormat.getInstance(Locale.US));
+        checkRoundTrip(NumberFormat.getInstance(Locale.FRANCE));
+        checkRoundTrip(NumberFormat.getInstance(Locale.GERMANY));
+        checkRoundTrip(NumberFormat.getCurrencyInstance(Locale.US));
+        checkRoundTrip(NumberFormat.getCurrencyInstance(Locale.JAPAN));
+        checkRoundTrip(NumberFormat.getPercentInstance(Locale.US));
+    }
+
+    @Test
+    public void smallerThanSerialization() throws Exception {
+        // The encodings compared by the benchmark, at least 10 times smaller than serialization.
+        NumberFormatBenchmark benchmark = new NumberFormatBenchmark();
+        for (String format : new String[]{"default", "currency", "pattern"}) {
+            benchmark.format = format;
+            benchmark.setup();
+            int encoded = benchmark.encode().length;
+            int serialized = benchmark.serialize().length;
+            assertTrue(encoded * 10 < serialized);
+        }
+    }
+
+    @Test
+    public void customFormats() {
+        DecimalFormat fmt1 = new DecimalFormat("#,##0.00;(#,##0.00)");
+        fmt1.setRoundingMode(RoundingMode.HALF_UP);
+        checkRoundTrip(fmt1);
+
+        DecimalFormat fmt2 = new DecimalFormat("0.###E0");
+        checkRoundTrip(fmt2);
+
+        DecimalFormat fmt3 = new DecimalFormat("'$'#,####0.#'/u'");
+        fmt3.setMaximumIntegerDigits(Integer.MAX_VALUE);
+        fmt3.setMaximumFractionDigits(12);
+        fmt3.setDecimalSeparatorAlwaysShown(true);
+        fmt3.setGroupingUsed(false);
+        fmt3.setParseBigDecimal(true);
+        fmt3.setRoundingMode(RoundingMode.FLOOR);
+        checkRoundTrip(fmt3);
+    }
+
+    private static void checkRoundTrip(NumberFormat format) {
+        DecimalFormat fmt = (DecimalFormat) format;
+        DecimalFormat decoded = NumberFormatCodec.decode(NumberFormatCodec.encode(fmt));
+
+        assertEquals(decoded.toPattern(), fmt.toPattern());
+        assertEquals(decoded.getPositivePrefix(), fmt.getPositivePrefix());
+        assertEquals(decoded.getNegativeSuffix(), fmt.getNegativeSuffix());
+        assertEquals(decoded.getMaximumIntegerDigits(), fmt.getMaximumIntegerDigits());
+        assertEquals(decoded.getMinimumFractionDigits(), fmt.getMinimumFractionDigits());
+        assertEquals(decoded.getMaximumFractionDigits(), fmt.getMaximumFractionDigits());
+        assertEquals(decoded.getRoundingMode(), fmt.getRoundingMode());
+        assertEquals(decoded.isGroupingUsed(), fmt.isGroupingUsed());
+        assertEquals(decoded.isParseBigDecimal(), fmt.isParseBigDecimal());
+
+        String[] values = {"0", "-1", "0.5", "1234567.891", "-0.00012345", "98765432109876543210.5"};
+        for (String value : values) {
+            BigDecimal number = new BigDecimal(value);
+            assertEquals(decoded.format(number), fmt.format(number));
+        }
+    }
+
+}
@@ -0,0 +1,121 @@
+package com.github.inbalboa.calcdialog;
+
+import org.junit.Test;
+
+import java.math.BigDecimal;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class StateCodecTest {
+
+    @Test
+    public void integers() {
+        StateCodec.Writer writer = new StateCodec.Writer(1);
+        int[] ints = {0, 1, -1, 63, -64, 64, 1000, Integer.MAX_VALUE, Integer.MIN_VALUE};
+        long[] longs = {0, -1, 1L << 40, Long.MAX_VALUE, Long.MIN_VALUE};
+        for (int value : ints) {
+            writer.writeInt(value);
+        }
+        for (long value : longs) {
+            writer.writeLong(value);
+        }
+
+        StateCodec.Reader reader = new StateCodec.Reader(writer.toByteArray());
+        for (int value : ints) {
+            assertEquals(reader.readInt(), value);
+        }
+        for (long value : longs) {
+            assertEquals(reader.readLong(), value);
+        }
+    }
+
+    @Test
+    public void decimals() {
+        BigDecimal[] values = {
+                BigDecimal.ZERO,
+                new BigDecimal("0.000"),
+                new BigDecimal("-12.345"),
+                new BigDecimal("1E+10"),
+                new BigDecimal("9223372036854775807"),
+                new BigDecimal("-9223372036854775809.5"),
+                new BigDecimal("123456789012345678901234567890.123"),
+                BigDecimal.valueOf(1, Integer.MIN_VALUE),
+                BigDecimal.valueOf(-1, Integer.MAX_VALUE),
+        };
+        StateCodec.Writer writer = new StateCodec.Writer();
+        for (BigDecimal value : values) {
+            writer.writeDecimal(value);
+        }
+
+        StateCodec.Reader reader = new StateCodec.Reader(writer.toByteArray());
+        for (BigDecimal value : values) {
+            // Scale must be kept, so compare with equals.
+            assertEquals(reader.readDecimal(), value);
+        }
+    }
+
+    @Test
+    public void expression() {
+        Expression expr = new Expression();
+        expr.addNumber(new BigDecimal("12.50"));
+        expr.addOperator(Expression.Operator.MULTIPLY);
+        expr.addNumber(new BigDecimal("-123456789012345678901234567890"));
+        expr.addOperator(Expression.Operator.DIVIDE);
+        expr.addNumber(new BigDecimal("3E+2"));
+        expr.addOperator(Expression.Operator.SUBTRACT);
+
+        StateCodec.Writer writer = new StateCodec.Writer();
+        expr.encode(writer);
+        Expression decoded = Expression.decode(new StateCodec.Reader(writer.toByteArray()));
+
+        assertEquals(decoded.getNumberCount(), 3);
+        assertEquals(decoded.getOperatorCount(), 3);
+        for (int i = 0; i < 3; i++) {
+            assertEquals(decoded.getNumber(i), expr.getNumber(i));
+            assertEquals(decoded.getOperator(i), expr.getOperator(i));
+        }
+    }
+
+    @Test
+    public void smallerThanSerialization() throws Exception {
+        // The encodings compared by the benchmark, at least 10 times smaller than serialization.
+        StateBenchmark benchmark = new StateBenchmark();
+        for (int terms : new int[]{10, 100, 1000}) {
+            benchmark.terms = terms;
+            benchmark.setup();
+            int encoded = benchmark.encode().length;
+            int serialized = benchmark.serialize().length;
+            assertTrue(encoded * 10 < serialized);
+        }
+    }
+
+    @Test
+    public void undoHistory() {
+        Expression expr = new Expression();
+        UndoHistory history = new UndoHistory();
+        UndoHistory.Term terms = null;
+        for (int i = 1; i <= 3; i++) {
+            history.push(new UndoHistory.State(terms, BigDecimal.valueOf(i), null, i, 0, i));
+            expr.addNumber(BigDecimal.valueOf(i));
+            expr.addOperator(Expression.Operator.ADD);
+            terms = UndoHistory.Term.append(terms, expr);
+        }
+        UndoHistory.State current = new UndoHistory.State(terms, null, null, 0, 0, 0);
+        UndoHistory.State redone = history.undo(current);
+
+        StateCodec.Writer writer = new StateCodec.Writer();
+        history.encode(writer, terms, Integer.MAX_VALUE);
+        UndoHistory decoded = new UndoHistory();
+        decoded.decode(new StateCodec.Reader(writer.toByteArray()), terms);
+
+        assertEquals(decoded.getSize(), 2);
+        UndoHistory.State state = decoded.undo(redone);
+        assertEquals(state.currentValue, BigDecimal.valueOf(2));
+        assertEquals(UndoHistory.Term.index(state.terms), 1);
+        assertEquals(state.terms.previous.number, BigDecimal.ONE);
+        assertEquals(decoded.redo(state).flags, redone.flags);
+        assertEquals(decoded.redo(redone).flags, 0);
+    }
+
+}
@@ -0,0 +1,137 @@
+package com.github.inbalboa.calcdialog;
+
+import org.junit.Test;
+
+import java.math.BigDecimal;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+public class UndoHistoryTest {
+
+    @Test
+    public void undoRedo() {
+        UndoHistory history = new UndoHistory();
+        history.push(state(null, "1"));
+        history.push(state(null, "2"));
+
+        assertValue("2", history.undo(state(null, "3")));
+        assertValue("1", history.undo(state(null, "2")));
+        assertNull(history.undo(state(null, "1")));
+        assertValue("2", history.redo(state(null, "1")));
+        assertValue("3", history.redo(state(null, "2")));
+        assertNull(history.redo(state(null, "3")));
+
+        // A new input clears the redo history.
+        assertValue("2", history.undo(state(null, "3")));
+        history.push(state(null, "2"));
+        assertNull(history.redo(state(null, "4")));
+        assertValue("2", history.undo(state(null, "4")));
+    }
+
+    @Test
+    public void undoSkipsSameStates() {
+        UndoHistory history = new UndoHistory();
+        history.push(state(null, "1"));
+        history.push(state(null, "2"));
+        history.push(state(null, "2"));
+        assertEquals(2, history.getSize());
+
+        // The current state is the same as the last saved one, which is skipped.
+        assertValue("1", history.undo(state(null, "2")));
+    }
+
+    @Test
+    public void termsAreShared() {
+        Expression expr = new Expression();
+        expr.addNumber(new BigDecimal("1"));
+        expr.addOperator(Expression.Operator.ADD);
+        UndoHistory.Term t1 = UndoHistory.Term.append(null, expr);
+
+        expr.addNumber(new BigDecimal("2"));
+        expr.addOperator(Expression.Operator.MULTIPLY);
+        UndoHistory.Term t2 = UndoHistory.Term.append(t1, expr);
+        assertEquals(3, t2.index);
+        assertSame(t1, t2.previous.previous);
+        assertSame(t1, UndoHistory.Term.common(t1, t2));
+
+        // Only the terms after the common ones are changed.
+        Expression other = new Expression();
+        UndoHistory.Term.restore(other, null, t2);
+        assertEquals("1 + 2 ×", other.toString());
+        UndoHistory.Term.restore(other, t2, t1);
+        assertEquals("1 +", other.toString());
+    }
+
+    @Test
+    public void encodeDecode() {
+        Expression expr = new Expression();
+        expr.addNumber(new BigDecimal("1.5"));
+        expr.addOperator(Expression.Operator.SUBTRACT);
+        UndoHistory.Term t1 = UndoHistory.Term.append(null, expr);
+        expr.addNumber(new BigDecimal("2"));
+        expr.addOperator(Expression.Operator.DIVIDE);
+        UndoHistory.Term t2 = UndoHistory.Term.append(t1, expr);
+
+        UndoHistory history = new UndoHistory();
+        history.push(state(null, "1"));
+        history.push(state(t1, null));
+        history.push(state(t2, "3"));
+        history.undo(state(t2, "4"));
+
+        // Decoded relative to the current terms, which are shared.
+        StateCodec.Writer writer = new StateCodec.Writer();
+        history.encode(writer, t1, Integer.MAX_VALUE);
+        UndoHistory decoded = new UndoHistory();
+        decoded.decode(new StateCodec.Reader(writer.toByteArray()), t1);
+        assertEquals(2, decoded.getSize());
+
+        UndoHistory.State s1 = decoded.undo(state(t1, "5"));
+        assertNull(s1.currentValue);
+        assertSame(t1, s1.terms);
+        UndoHistory.State s0 = decoded.undo(s1);
+        assertValue("1", s0);
+        assertNull(s0.terms);
+
+        assertNull(decoded.redo(s0).currentValue);
+        assertValue("5", decoded.redo(s1));
+        UndoHistory.State s = decoded.redo(state(t1, "5"));
+        assertValue("4", s);
+        assertEquals(3, s.terms.index);
+        assertSame(t1, s.terms.previous.previous);
+        assertEquals(Expression.Operator.DIVIDE, s.terms.operator);
+        assertEquals(new BigDecimal("2"), s.terms.previous.number);
+    }
+
+    @Test
+    public void encodeTrimmed() {
+        UndoHistory history = new UndoHistory();
+        for (int i = 0; i < 10; i++) {
+            history.push(state(null, String.valueOf(i)));
+        }
+
+        // Only the most recent states are kept.
+        StateCodec.Writer writer = new StateCodec.Writer();
+        history.encode(writer, null, 3);
+        UndoHistory decoded = new UndoHistory();
+        decoded.decode(new StateCodec.Reader(writer.toByteArray()), null);
+        assertEquals(3, decoded.getSize());
+        UndoHistory.State current = state(null, "10");
+        for (int i = 9; i >= 7; i--) {
+            current = decoded.undo(current);
+            assertValue(String.valueOf(i), current);
+        }
+        assertNull(decoded.undo(current));
+    }
+
+    private static void assertValue(String expected, UndoHistory.State state) {
+        assertEquals(new BigDecimal(expected), state.currentValue);
+    }
+
+    private static UndoHistory.State state(UndoHistory.Term terms, String value) {
+        return new UndoHistory.State(terms, value == null ? null : new BigDecimal(value),
+                null, -1, -1, 0);
+    }
+
+}